@@ -0,0 +1,111 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Stress test of the triple buffer that hands frames from the engine thread
+ * to the UI. The producer fills every color of its frame with the frame's
+ * sequence number before publishing, and the consumer checks that each frame
+ * it picks up holds a single sequence number, newer than the last one it saw.
+ * A torn or stale frame fails the run with an IllegalStateException.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FrameHandoffBenchmark {
+
+  @Param({"64", "100000"})
+  public int numPoints;
+
+  private TripleBuffer<int[]> frames;
+
+  // Producer thread state
+  private int writeSequence = 0;
+
+  // Consumer thread state
+  private int readSequence = 0;
+
+  @Setup
+  public void setup() {
+    this.frames = new TripleBuffer<int[]>(
+      new int[this.numPoints],
+      new int[this.numPoints],
+      new int[this.numPoints]
+    );
+    this.writeSequence = 0;
+    this.readSequence = 0;
+  }
+
+  @Benchmark
+  @Group("handoff")
+  @GroupThreads(1)
+  public void publish() {
+    int[] colors = this.frames.getWrite();
+    int sentinel = ++this.writeSequence;
+    for (int i = 0; i < colors.length; ++i) {
+      colors[i] = sentinel;
+    }
+    this.frames.publish();
+  }
+
+  @Benchmark
+  @Group("handoff")
+  @GroupThreads(1)
+  public int pickup() {
+    if (!this.frames.pickup()) {
+      return this.readSequence;
+    }
+    int[] colors = this.frames.getRead();
+    int sentinel = colors[0];
+    for (int i = 1; i < colors.length; ++i) {
+      if (colors[i] != sentinel) {
+        throw new IllegalStateException("Torn frame: colors[0] is " + sentinel + " but colors[" + i + "] is " + colors[i]);
+      }
+    }
+    if (sentinel <= this.readSequence) {
+      throw new IllegalStateException("Stale frame: picked up " + sentinel + " after " + this.readSequence);
+    }
+    this.readSequence = sentinel;
+    return sentinel;
+  }
+}
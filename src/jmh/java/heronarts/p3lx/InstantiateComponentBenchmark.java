@@ -0,0 +1,168 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx;
+
+import heronarts.lx.LX;
+import heronarts.lx.LXComponent;
+import heronarts.lx.pattern.LXPattern;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import processing.core.PApplet;
+
+/**
+ * Opening a project with a channel of devices, and instantiating those
+ * devices directly, as happens when channels are rebuilt. The reflective
+ * baseline repeats the constructor lookups on every instantiation, as P3LX
+ * did before caching them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class InstantiateComponentBenchmark {
+
+  public static class LXConstructorPattern extends LXPattern {
+    public LXConstructorPattern(LX lx) {
+      super(lx);
+    }
+
+    @Override
+    protected void run(double deltaMs) {}
+  }
+
+  public static class AppletConstructorPattern extends LXPattern {
+    public AppletConstructorPattern(PApplet applet, LX lx) {
+      super(lx);
+    }
+
+    @Override
+    protected void run(double deltaMs) {}
+  }
+
+  /**
+   * P3LX with the constructor lookups it made before they were cached
+   */
+  private static class ReflectiveP3LX extends P3LX {
+
+    private ReflectiveP3LX(PApplet applet, Flags flags) {
+      super(applet, flags);
+    }
+
+    @Override
+    public <T extends LXComponent> T instantiateComponent(Class<? extends T> cls, Class<T> type) {
+      try {
+        try {
+          return cls.getConstructor(LX.class).newInstance(this);
+        } catch (NoSuchMethodException nsmx) {
+          try {
+            return cls.getConstructor().newInstance();
+          } catch (NoSuchMethodException nsmx2) {
+            try {
+              return cls.getConstructor(this.applet.getClass(), LX.class).newInstance(this.applet, this);
+            } catch (NoSuchMethodException nsmx3) {
+              return cls.getConstructor(this.applet.getClass()).newInstance(this.applet);
+            }
+          }
+        }
+      } catch (Exception x) {
+        error(x, "Component instantiation failed: " + x.getLocalizedMessage());
+      }
+      return null;
+    }
+  }
+
+  @Param({"100", "500"})
+  public int numDevices;
+
+  @Param({"cached", "reflective"})
+  public String lookup;
+
+  private P3LX lx;
+
+  private File project;
+
+  @Setup
+  public void setup() throws IOException {
+    PApplet applet = new PApplet();
+    P3LX.Flags flags = new P3LX.Flags(applet);
+    flags.headless = true;
+    this.lx = "reflective".equals(this.lookup) ? new ReflectiveP3LX(applet, flags) : new P3LX(applet, flags);
+
+    LXPattern[] patterns = new LXPattern[this.numDevices];
+    for (int i = 0; i < this.numDevices; ++i) {
+      patterns[i] = this.lx.instantiateComponent(deviceClass(i), LXPattern.class);
+    }
+    this.lx.engine.mixer.addChannel(patterns);
+    this.project = File.createTempFile("instantiate-component", ".lxp");
+    this.project.deleteOnExit();
+    this.lx.saveProject(this.project);
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.lx.dispose();
+    this.project.delete();
+  }
+
+  private static Class<? extends LXPattern> deviceClass(int i) {
+    // Sketch inner classes take the applet, which is the slowest lookup
+    return ((i & 1) == 0) ? LXConstructorPattern.class : AppletConstructorPattern.class;
+  }
+
+  /**
+   * Replaces the open project with the saved one, instantiating all of its
+   * devices again
+   */
+  @Benchmark
+  public void openProject() {
+    this.lx.openProject(this.project);
+  }
+
+  @Benchmark
+  public void instantiate(Blackhole bh) {
+    for (int i = 0; i < this.numDevices; ++i) {
+      LXPattern pattern = this.lx.instantiateComponent(deviceClass(i), LXPattern.class);
+      bh.consume(pattern);
+      // Components register themselves with LX, don't let them pile up
+      pattern.dispose();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui;
+
+import heronarts.p3lx.P3LX;
+import processing.awt.PGraphicsJava2D;
+import processing.core.PApplet;
+import processing.core.PGraphics;
+
+/**
+ * Builds the objects benchmarks need without opening a display. The applet
+ * is never run, so it has no surface, and P3LX is started headless.
+ */
+public class BenchmarkUI {
+
+  public static P3LX createLX() {
+    PApplet applet = new PApplet();
+    // Offscreen surface for createGraphics() to work from, as the applet
+    // never creates one of its own
+    PGraphics g = new PGraphicsJava2D();
+    g.setParent(applet);
+    g.setPrimary(false);
+    g.setSize(1280, 720);
+    applet.g = g;
+    P3LX.Flags flags = new P3LX.Flags(applet);
+    flags.headless = true;
+    return new P3LX(applet, flags);
+  }
+
+  public static UI createUI(P3LX lx) {
+    return new UI(lx);
+  }
+
+  /**
+   * Builds a tree of containers with the given number of children per
+   * container, down to the given depth
+   *
+   * @param root Container to build under
+   * @param depth Levels of containers below the root
+   * @param fanout Children per container
+   * @return The last leaf that was added
+   */
+  static UI2dComponent buildTree(UI2dContainer root, int depth, int fanout) {
+    UI2dComponent leaf = root;
+    if (depth > 0) {
+      for (int i = 0; i < fanout; ++i) {
+        UI2dContainer child = new UI2dContainer(0, 0, 10, 10);
+        child.addToContainer(root);
+        leaf = buildTree(child, depth - 1, fanout);
+      }
+    }
+    return leaf;
+  }
+}
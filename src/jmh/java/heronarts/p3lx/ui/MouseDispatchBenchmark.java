@@ -0,0 +1,116 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui;
+
+import heronarts.p3lx.P3LX;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import processing.core.PConstants;
+import processing.event.MouseEvent;
+
+/**
+ * Mouse dispatch through a wide container, which scans its children for the
+ * one under the mouse
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MouseDispatchBenchmark {
+
+  private static final float CHILD_SIZE = 20;
+
+  @Param({"100", "1000", "10000"})
+  public int numChildren;
+
+  private P3LX lx;
+  private UI2dContainer container;
+  private MouseEvent moveEvent;
+  private MouseEvent pressEvent;
+  private MouseEvent releaseEvent;
+  private int columns;
+  private int target = 0;
+
+  @Setup
+  public void setup() {
+    this.lx = BenchmarkUI.createLX();
+    UI ui = BenchmarkUI.createUI(this.lx);
+    this.columns = (int) Math.ceil(Math.sqrt(this.numChildren));
+    float size = this.columns * CHILD_SIZE;
+    this.container = new UI2dContainer(0, 0, size, size);
+    this.container.setUI(ui);
+    for (int i = 0; i < this.numChildren; ++i) {
+      new UI2dComponent((i % this.columns) * CHILD_SIZE, (i / this.columns) * CHILD_SIZE, CHILD_SIZE, CHILD_SIZE) {}
+      .addToContainer(this.container);
+    }
+    this.moveEvent = new MouseEvent(null, 0, MouseEvent.MOVE, 0, 0, 0, PConstants.LEFT, 0);
+    this.pressEvent = new MouseEvent(null, 0, MouseEvent.PRESS, 0, 0, 0, PConstants.LEFT, 1);
+    this.releaseEvent = new MouseEvent(null, 0, MouseEvent.RELEASE, 0, 0, 0, PConstants.LEFT, 1);
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.lx.dispose();
+  }
+
+  private float targetX() {
+    return (this.target % this.columns) * CHILD_SIZE + CHILD_SIZE / 2;
+  }
+
+  private float targetY() {
+    return (this.target / this.columns) * CHILD_SIZE + CHILD_SIZE / 2;
+  }
+
+  private void nextTarget() {
+    // Stride through the children so the one under the mouse keeps changing
+    this.target = (this.target + 7919) % this.numChildren;
+  }
+
+  @Benchmark
+  public void mouseMoved() {
+    nextTarget();
+    this.container.mouseMoved(this.moveEvent, targetX(), targetY());
+  }
+
+  @Benchmark
+  public void mousePressReleased() {
+    nextTarget();
+    this.container.mousePressed(this.pressEvent, targetX(), targetY());
+    this.container.mouseReleased(this.releaseEvent, targetX(), targetY());
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Marking components for redraw, which walks down the whole subtree and back
+ * up through every ancestor
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RedrawBenchmark {
+
+  @Param({"4", "8", "12"})
+  public int depth;
+
+  @Param({"2", "4"})
+  public int fanout;
+
+  private UI2dContainer root;
+  private UI2dComponent leaf;
+
+  @Setup
+  public void setup() {
+    // Very deep trees with a wide fanout are too large to build
+    int depth = this.depth;
+    while (Math.pow(this.fanout, depth) > (1 << 20)) {
+      --depth;
+    }
+    this.root = new UI2dContainer(0, 0, 100, 100);
+    this.leaf = BenchmarkUI.buildTree(this.root, depth, this.fanout);
+  }
+
+  @Benchmark
+  public void redrawRoot() {
+    this.root._redraw();
+  }
+
+  @Benchmark
+  public void redrawLeaf() {
+    this.leaf._redraw();
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Eight threads requesting redraws of random components, as a storm of
+ * controller input would, while the UI thread drains the queue. The
+ * synchronized list is the contains-then-add approach that UIRedrawQueue
+ * replaced.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RedrawQueueBenchmark {
+
+  @Param({"100", "1000"})
+  public int numComponents;
+
+  private UI2dComponent[] components;
+
+  private final UIRedrawQueue queue = new UIRedrawQueue();
+
+  private final List<UI2dComponent> threadSafeList =
+    Collections.synchronizedList(new ArrayList<UI2dComponent>());
+
+  private final List<UI2dComponent> uiThreadList = new ArrayList<UI2dComponent>();
+
+  @Setup
+  public void setup() {
+    this.components = new UI2dComponent[this.numComponents];
+    for (int i = 0; i < this.components.length; ++i) {
+      this.components[i] = new UI2dComponent(0, 0, 10, 10) {};
+    }
+  }
+
+  private UI2dComponent randomComponent() {
+    return this.components[ThreadLocalRandom.current().nextInt(this.components.length)];
+  }
+
+  @Benchmark
+  @Group("queue")
+  @GroupThreads(8)
+  public boolean queueProduce() {
+    return this.queue.add(randomComponent());
+  }
+
+  @Benchmark
+  @Group("queue")
+  @GroupThreads(1)
+  public int queueDrain() {
+    int count = 0;
+    UI2dComponent component;
+    while ((component = this.queue.poll()) != null) {
+      this.queue.done(component);
+      ++count;
+    }
+    return count;
+  }
+
+  @Benchmark
+  @Group("synchronizedList")
+  @GroupThreads(8)
+  public void listProduce() {
+    UI2dComponent component = randomComponent();
+    if (!this.threadSafeList.contains(component)) {
+      this.threadSafeList.add(component);
+    }
+  }
+
+  @Benchmark
+  @Group("synchronizedList")
+  @GroupThreads(1)
+  public int listDrain() {
+    this.uiThreadList.clear();
+    synchronized (this.threadSafeList) {
+      this.uiThreadList.addAll(this.threadSafeList);
+      this.threadSafeList.clear();
+    }
+    return this.uiThreadList.size();
+  }
+}
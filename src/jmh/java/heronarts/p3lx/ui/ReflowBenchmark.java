@@ -0,0 +1,74 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reflowing a container with a large number of children in each layout mode
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ReflowBenchmark {
+
+  @Param({"100", "1000", "10000"})
+  public int numChildren;
+
+  @Param({"VERTICAL", "HORIZONTAL", "VERTICAL_GRID", "HORIZONTAL_GRID"})
+  public UI2dContainer.Layout layout;
+
+  private UI2dContainer container;
+
+  @Setup
+  public void setup() {
+    float size = (float) Math.sqrt(this.numChildren) * 20;
+    this.container = new UI2dContainer(0, 0, size, size);
+    for (int i = 0; i < this.numChildren; ++i) {
+      new UI2dContainer(0, 0, 16 + (i % 5), 16 + (i % 3)).addToContainer(this.container);
+    }
+    this.container.setChildSpacing(2);
+    this.container.setLayout(this.layout);
+  }
+
+  @Benchmark
+  public void reflow() {
+    this.container.reflow();
+  }
+}
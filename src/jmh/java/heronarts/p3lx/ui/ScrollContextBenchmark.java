@@ -0,0 +1,122 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui;
+
+import heronarts.p3lx.P3LX;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/**
+ * Scrolling through a tall stack of controls in a scroll context. Only the
+ * rows within the visible window should cost anything to mark and draw.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ScrollContextBenchmark {
+
+  private static final float WIDTH = 400;
+  private static final float HEIGHT = 600;
+  private static final float ROW_HEIGHT = 20;
+
+  @Param({"500", "5000"})
+  public int numChildren;
+
+  private P3LX lx;
+  private UI ui;
+  private UI2dScrollContext context;
+  private UI2dComponent visibleChild;
+  private PGraphics dst;
+  private float scrollY = 0;
+
+  @Setup
+  public void setup() {
+    this.lx = BenchmarkUI.createLX();
+    this.ui = BenchmarkUI.createUI(this.lx);
+    this.context = new UI2dScrollContext(this.ui, 0, 0, WIDTH, HEIGHT);
+    this.context.setScrollSize(WIDTH, this.numChildren * ROW_HEIGHT);
+    for (int i = 0; i < this.numChildren; ++i) {
+      new UI2dComponent(0, i * ROW_HEIGHT, WIDTH, ROW_HEIGHT) {
+        @Override
+        protected void onDraw(UI ui, PGraphics pg) {
+          pg.fill(0xff333333);
+          pg.rect(2, 2, this.width - 4, this.height - 4);
+        }
+      }.addToContainer(this.context);
+    }
+    this.visibleChild = (UI2dComponent) this.context.children.get(1);
+    this.dst = this.lx.applet.createGraphics((int) WIDTH, (int) HEIGHT, PConstants.JAVA2D);
+
+    // Settle the initial full draw
+    this.dst.beginDraw();
+    this.context.draw(this.ui, this.dst);
+    this.dst.endDraw();
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.lx.dispose();
+  }
+
+  private void draw() {
+    this.dst.beginDraw();
+    this.context.draw(this.ui, this.dst);
+    this.dst.endDraw();
+  }
+
+  @Benchmark
+  public void scroll() {
+    // Page through the whole stack, wrapping back to the top
+    this.scrollY -= HEIGHT / 2;
+    if (this.scrollY < HEIGHT - this.numChildren * ROW_HEIGHT) {
+      this.scrollY = 0;
+    }
+    this.context.setScrollY(this.scrollY);
+    this.context._redraw();
+    draw();
+  }
+
+  @Benchmark
+  public void redrawVisibleChild() {
+    this.visibleChild._redraw();
+    draw();
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui;
+
+import java.awt.Font;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import processing.core.PFont;
+import processing.core.PGraphics;
+
+/**
+ * Fitting labels to a width. The graphics context is never drawn to, it is
+ * only used for text metrics, so no display is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TextLayoutBenchmark {
+
+  @Param({"16", "128", "1024"})
+  public int textLength;
+
+  @Param({"40", "200"})
+  public float width;
+
+  private PGraphics pg;
+  private String text;
+
+  @Setup
+  public void setup() {
+    this.pg = new PGraphics();
+    this.pg.textFont(new PFont(new Font(Font.SANS_SERIF, Font.PLAIN, 10), true));
+
+    Random random = new Random(0);
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < this.textLength) {
+      int wordLength = 2 + random.nextInt(8);
+      for (int i = 0; i < wordLength; ++i) {
+        sb.append((char) ('a' + random.nextInt(26)));
+      }
+      sb.append(' ');
+    }
+    this.text = sb.substring(0, this.textLength);
+  }
+
+  @Benchmark
+  public String clipTextToWidth() {
+    return UI2dComponent.clipTextToWidth(this.pg, this.text, this.width);
+  }
+
+  @Benchmark
+  public String breakTextToWidth() {
+    return UI2dComponent.breakTextToWidth(this.pg, this.text, this.width);
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui.component;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converting frame colors into the point cloud's upload buffer, serially and
+ * split across the common pool. This is all CPU-side, no GL context is used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ColorPackingBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int modelSize;
+
+  @Param({"true", "false"})
+  public boolean packed;
+
+  @Param({"true", "false"})
+  public boolean parallel;
+
+  /**
+   * Fraction of points that change on each frame
+   */
+  @Param({"0.01", "1"})
+  public float changed;
+
+  private UIGLPointCloud.ColorBuffer colorBuffer;
+  private int[] colors;
+  private int stride;
+  private int offset = 0;
+  private int frame = 0;
+
+  @Setup
+  public void setup() {
+    this.colorBuffer = new UIGLPointCloud.ColorBuffer(this.modelSize, this.packed);
+    this.colors = new int[this.modelSize];
+    for (int i = 0; i < this.colors.length; ++i) {
+      this.colors[i] = 0xff000000 | ((i * 0x9e3779b9) >>> 8);
+    }
+    this.stride = Math.max(1, Math.round(1 / this.changed));
+    this.colorBuffer.update(this.colors);
+  }
+
+  @Benchmark
+  public float update() {
+    // Change a spread of points, as a moving pattern would
+    ++this.frame;
+    for (int i = this.offset; i < this.colors.length; i += this.stride) {
+      this.colors[i] += this.frame;
+    }
+    this.offset = (this.offset + 1) % this.stride;
+    this.colorBuffer.update(this.colors, this.parallel ? 0 : Integer.MAX_VALUE);
+    return this.colorBuffer.getChangedFraction();
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui.component;
+
+import heronarts.p3lx.P3LX;
+import heronarts.p3lx.ui.BenchmarkUI;
+import heronarts.p3lx.ui.UI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.event.MouseEvent;
+
+/**
+ * Scrolling and clicking through a long item list split into sections. Both
+ * should cost the same regardless of how many items are in the list.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ItemListBenchmark {
+
+  private static final float WIDTH = 300;
+  private static final float HEIGHT = 600;
+  private static final int SECTION_SIZE = 100;
+  private static final float ROW_SPACING = 18;
+
+  @Param({"1000", "100000"})
+  public int numItems;
+
+  private P3LX lx;
+  private UI ui;
+  private UIItemList.ScrollList list;
+  private PGraphics pg;
+  private MouseEvent pressEvent;
+  private int row = 0;
+
+  private static class Item extends UIItemList.Item {
+
+    private final UIItemList.Section section;
+    private final String label;
+
+    private Item(UIItemList.Section section, String label) {
+      this.section = section;
+      this.label = label;
+    }
+
+    @Override
+    public String getLabel() {
+      return this.label;
+    }
+
+    @Override
+    public UIItemList.Section getSection() {
+      return this.section;
+    }
+  }
+
+  @Setup
+  public void setup() {
+    this.lx = BenchmarkUI.createLX();
+    this.ui = BenchmarkUI.createUI(this.lx);
+    this.list = new UIItemList.ScrollList(this.ui, 0, 0, WIDTH, HEIGHT);
+    List<UIItemList.Item> items = new ArrayList<UIItemList.Item>();
+    UIItemList.Section section = null;
+    for (int i = 0; i < this.numItems; ++i) {
+      if (i % SECTION_SIZE == 0) {
+        section = new UIItemList.Section("Section " + (i / SECTION_SIZE));
+        items.add(section);
+      }
+      items.add(new Item(section, "Item " + i));
+    }
+    this.list.setItems(items);
+    this.pg = this.lx.applet.createGraphics((int) WIDTH, (int) HEIGHT, PConstants.JAVA2D);
+    this.pressEvent = new MouseEvent(null, 0, MouseEvent.PRESS, 0, 0, 0, PConstants.LEFT, 1);
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.lx.dispose();
+  }
+
+  private void nextRow() {
+    // Stride through the list so the rows in view keep changing
+    this.row = (this.row + 7919) % this.list.getItems().size();
+  }
+
+  @Benchmark
+  public void drawScrolled() {
+    nextRow();
+    this.list.setScrollY(-this.row * ROW_SPACING);
+    this.pg.beginDraw();
+    this.list.onDraw(this.ui, this.pg);
+    this.pg.endDraw();
+  }
+
+  @Benchmark
+  public void mousePressed() {
+    nextRow();
+    this.list.onMousePressed(this.pressEvent, WIDTH / 2, this.row * ROW_SPACING + ROW_SPACING / 2);
+  }
+}
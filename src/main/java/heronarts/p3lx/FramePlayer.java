@@ -0,0 +1,311 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx;
+
+import heronarts.lx.LXEngine;
+import heronarts.lx.model.LXModel;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Plays back a file written by FrameRecorder as a frame source for the UI,
+ * see UIPointCloud.setFrameSource(). Playback follows the recorded
+ * timestamps at a variable speed, which may be negative, and can be sought
+ * or scrubbed while playing or paused.
+ *
+ * Recorded colors are shown point-for-point on the current model. The
+ * recording does not hold geometry, so it should be reviewed on the model it
+ * was made with. The recording may still be being written by another
+ * process, in which case the playable range grows as it does.
+ *
+ * This is intended to be used from the UI thread only.
+ */
+public class FramePlayer implements FrameSource, Closeable {
+
+  private final P3LX lx;
+
+  private final FrameRecorder.Reader reader;
+
+  private final FrameRecorder.Frame recorded = new FrameRecorder.Frame();
+
+  private final LXEngine.Frame frame;
+
+  private int sequence = 0;
+
+  private long frameNumber = -1;
+
+  // Playback position in recording time, measured from the anchor while playing
+  private long positionNanos = 0;
+  private long anchorNanos = 0;
+
+  private double speed = 1;
+  private boolean playing = false;
+  private boolean looping = false;
+
+  /**
+   * Opens a recording for playback, positioned at its first available frame
+   *
+   * @param lx P3LX instance
+   * @param file Recording file
+   * @throws IOException If the file is not a readable recording
+   */
+  public FramePlayer(P3LX lx, File file) throws IOException {
+    this.lx = lx;
+    this.reader = new FrameRecorder.Reader(file);
+    this.frame = new LXEngine.Frame(lx);
+    seek(this.reader.getFirstFrame());
+  }
+
+  /**
+   * Starts playback from the current position
+   *
+   * @return this
+   */
+  public FramePlayer play() {
+    if (!this.playing) {
+      this.anchorNanos = System.nanoTime();
+      this.playing = true;
+    }
+    return this;
+  }
+
+  /**
+   * Pauses playback at the current position
+   *
+   * @return this
+   */
+  public FramePlayer pause() {
+    if (this.playing) {
+      this.positionNanos = getPositionNanos();
+      this.playing = false;
+    }
+    return this;
+  }
+
+  public boolean isPlaying() {
+    return this.playing;
+  }
+
+  /**
+   * Sets the playback speed relative to real time. Negative speeds play in
+   * reverse.
+   *
+   * @param speed Playback speed
+   * @return this
+   */
+  public FramePlayer setSpeed(double speed) {
+    reanchor();
+    this.speed = speed;
+    return this;
+  }
+
+  public double getSpeed() {
+    return this.speed;
+  }
+
+  /**
+   * Sets whether playback wraps around at the ends of the recording, rather
+   * than pausing
+   *
+   * @param looping Whether to loop
+   * @return this
+   */
+  public FramePlayer setLooping(boolean looping) {
+    this.looping = looping;
+    return this;
+  }
+
+  /**
+   * Moves to a recorded frame
+   *
+   * @param frameNumber Frame number, clamped to those available
+   * @return this
+   */
+  public FramePlayer seek(long frameNumber) {
+    long first = this.reader.getFirstFrame();
+    long last = this.reader.getFrameCount() - 1;
+    frameNumber = Math.max(first, Math.min(last, frameNumber));
+    long timeNanos = this.reader.getTimeNanos(frameNumber);
+    if (timeNanos >= 0) {
+      setPositionNanos(timeNanos);
+    }
+    return this;
+  }
+
+  /**
+   * Moves to a time in the recording
+   *
+   * @param seconds Seconds since the recording started
+   * @return this
+   */
+  public FramePlayer seekTime(double seconds) {
+    setPositionNanos((long) (seconds * 1e9));
+    return this;
+  }
+
+  /**
+   * Moves to a relative position within the available frames, e.g. from a
+   * slider
+   *
+   * @param normalized Position from 0 (oldest) to 1 (newest)
+   * @return this
+   */
+  public FramePlayer scrub(double normalized) {
+    long start = getStartNanos();
+    long end = getEndNanos();
+    setPositionNanos(start + (long) (Math.max(0, Math.min(1, normalized)) * (end - start)));
+    return this;
+  }
+
+  /**
+   * Current playback position
+   *
+   * @return Seconds since the recording started
+   */
+  public double getPositionSeconds() {
+    return getPositionNanos() / 1e9;
+  }
+
+  /**
+   * Number of the recorded frame currently shown
+   *
+   * @return Frame number, or -1 if none is available
+   */
+  public long getFrameNumber() {
+    update();
+    return this.frameNumber;
+  }
+
+  public FrameRecorder.Reader getReader() {
+    return this.reader;
+  }
+
+  @Override
+  public LXEngine.Frame getUIFrame() {
+    update();
+    return this.frame;
+  }
+
+  @Override
+  public int getUIFrameSequence() {
+    update();
+    return this.sequence;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.reader.close();
+  }
+
+  private long getPositionNanos() {
+    if (this.playing) {
+      return this.positionNanos + (long) ((System.nanoTime() - this.anchorNanos) * this.speed);
+    }
+    return this.positionNanos;
+  }
+
+  private void setPositionNanos(long positionNanos) {
+    this.positionNanos = positionNanos;
+    this.anchorNanos = System.nanoTime();
+  }
+
+  private void reanchor() {
+    setPositionNanos(getPositionNanos());
+  }
+
+  private long getStartNanos() {
+    // The oldest frames may be overwritten between calls, skip past them
+    long first = this.reader.getFirstFrame();
+    long last = this.reader.getFrameCount() - 1;
+    for (long f = first; f <= last; ++f) {
+      long timeNanos = this.reader.getTimeNanos(f);
+      if (timeNanos >= 0) {
+        return timeNanos;
+      }
+    }
+    return 0;
+  }
+
+  private long getEndNanos() {
+    return Math.max(0, this.reader.getTimeNanos(this.reader.getFrameCount() - 1));
+  }
+
+  private void update() {
+    if (this.reader.getFrameCount() == 0) {
+      return;
+    }
+
+    // Handle reaching either end of the recording
+    long start = getStartNanos();
+    long end = getEndNanos();
+    long position = getPositionNanos();
+    if ((position < start) || (position > end)) {
+      if (this.playing && this.looping) {
+        setPositionNanos((this.speed >= 0) ? start : end);
+      } else {
+        this.positionNanos = Math.max(start, Math.min(end, position));
+        this.playing = false;
+      }
+      position = this.positionNanos;
+    }
+
+    long frameNumber = findFrame(position);
+    if ((frameNumber != this.frameNumber) && this.reader.read(frameNumber, this.recorded)) {
+      this.frameNumber = frameNumber;
+      LXModel model = this.lx.getModel();
+      if (this.frame.getModel() != model) {
+        this.frame.setModel(model);
+      }
+      int[] colors = this.frame.getColors();
+      int numPoints = Math.min(colors.length, this.recorded.numPoints);
+      System.arraycopy(this.recorded.colors, 0, colors, 0, numPoints);
+      Arrays.fill(colors, numPoints, colors.length, 0);
+      ++this.sequence;
+    }
+  }
+
+  /**
+   * Binary search for the last frame recorded at or before the given time
+   */
+  private long findFrame(long positionNanos) {
+    long lo = this.reader.getFirstFrame();
+    long hi = this.reader.getFrameCount() - 1;
+    while (lo < hi) {
+      long mid = (lo + hi + 1) >>> 1;
+      long timeNanos = this.reader.getTimeNanos(mid);
+      if ((timeNanos >= 0) && (timeNanos <= positionNanos)) {
+        lo = mid;
+      } else if (timeNanos < 0) {
+        // Overwritten while searching, only newer frames remain
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+}
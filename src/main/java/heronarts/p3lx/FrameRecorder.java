@@ -0,0 +1,459 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx;
+
+import heronarts.lx.LXEngine;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records UI frames into a memory-mapped ring file, for post-show inspection
+ * of exactly what was displayed. Register it with P3LX.addFrameListener().
+ * Only frames whose contents changed are recorded. Once the ring is full the
+ * oldest frames are overwritten.
+ *
+ * The file is little-endian, with a fixed header followed by fixed-size
+ * slots. The layout is described by the constants below so that another
+ * process can map it and read any frame by number, see FrameRecorder.Reader.
+ *
+ * The file is mapped in segments of whole slots, each under 1GB, so that
+ * captures larger than a single mapping are possible. Recording writes
+ * directly into the mapping and does not allocate.
+ */
+public class FrameRecorder implements P3LX.FrameListener, Closeable {
+
+  public static final int MAGIC = 0x52463350; // "P3FR"
+  public static final int VERSION = 1;
+
+  public static final int HEADER_SIZE = 64;
+
+  // Header field offsets
+  public static final int HEADER_MAGIC = 0;
+  public static final int HEADER_VERSION = 4;
+  public static final int HEADER_SLOT_SIZE = 8;
+  public static final int HEADER_MAX_POINTS = 12;
+  public static final int HEADER_CAPACITY = 16;
+  public static final int HEADER_START_MILLIS = 24;
+  public static final int HEADER_FRAME_COUNT = 32;
+
+  public static final int SLOT_HEADER_SIZE = 32;
+
+  // Slot field offsets. The frame number is -1 while a slot is being written.
+  public static final int SLOT_FRAME_NUMBER = 0;
+  public static final int SLOT_TIME_NANOS = 8;
+  public static final int SLOT_MODEL_GENERATION = 16;
+  public static final int SLOT_MODEL_SIZE = 20;
+  public static final int SLOT_NUM_POINTS = 24;
+  public static final int SLOT_SEQUENCE = 28;
+
+  private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+
+  private final MappedByteBuffer header;
+  private final MappedByteBuffer[] segments;
+  private final IntBuffer[] segmentInts;
+
+  public final int maxPoints;
+  public final int capacity;
+
+  private final int slotSize;
+  private final int slotsPerSegment;
+  private final long startNanos;
+
+  private long frameCount = 0;
+  private int lastSequence = -1;
+  private boolean closed = false;
+
+  /**
+   * Creates a recorder, truncating any existing file
+   *
+   * @param file File to record into
+   * @param maxPoints Maximum number of points per frame, larger frames are truncated
+   * @param capacity Number of frames kept before the oldest is overwritten
+   * @throws IOException If the file cannot be created or mapped
+   */
+  public FrameRecorder(File file, int maxPoints, int capacity) throws IOException {
+    if (maxPoints <= 0 || capacity <= 0) {
+      throw new IllegalArgumentException("FrameRecorder maxPoints and capacity must be positive");
+    }
+    this.maxPoints = maxPoints;
+    this.capacity = capacity;
+    this.slotSize = SLOT_HEADER_SIZE + 4 * maxPoints;
+    if (this.slotSize > MAX_SEGMENT_SIZE) {
+      throw new IllegalArgumentException("FrameRecorder maxPoints too large: " + maxPoints);
+    }
+    this.slotsPerSegment = (int) Math.min(capacity, MAX_SEGMENT_SIZE / this.slotSize);
+
+    this.file = new RandomAccessFile(file, "rw");
+    try {
+      this.file.setLength(0);
+      this.file.setLength(HEADER_SIZE + (long) capacity * this.slotSize);
+      this.channel = this.file.getChannel();
+
+      this.header = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+      this.header.order(ByteOrder.LITTLE_ENDIAN);
+
+      int numSegments = (capacity + this.slotsPerSegment - 1) / this.slotsPerSegment;
+      this.segments = new MappedByteBuffer[numSegments];
+      this.segmentInts = new IntBuffer[numSegments];
+      for (int i = 0; i < numSegments; ++i) {
+        int numSlots = Math.min(this.slotsPerSegment, capacity - i * this.slotsPerSegment);
+        this.segments[i] = this.channel.map(
+          FileChannel.MapMode.READ_WRITE,
+          HEADER_SIZE + (long) i * this.slotsPerSegment * this.slotSize,
+          (long) numSlots * this.slotSize
+        );
+        this.segments[i].order(ByteOrder.LITTLE_ENDIAN);
+        this.segmentInts[i] = this.segments[i].asIntBuffer();
+        for (int s = 0; s < numSlots; ++s) {
+          this.segments[i].putLong(s * this.slotSize + SLOT_FRAME_NUMBER, -1);
+        }
+      }
+    } catch (IOException | RuntimeException x) {
+      // Closing the file also closes its channel
+      closeQuietly(this.file);
+      throw x;
+    }
+
+    this.startNanos = System.nanoTime();
+    this.header.putInt(HEADER_VERSION, VERSION);
+    this.header.putInt(HEADER_SLOT_SIZE, this.slotSize);
+    this.header.putInt(HEADER_MAX_POINTS, maxPoints);
+    this.header.putInt(HEADER_CAPACITY, capacity);
+    this.header.putLong(HEADER_START_MILLIS, System.currentTimeMillis());
+    this.header.putLong(HEADER_FRAME_COUNT, 0);
+    this.header.putInt(HEADER_MAGIC, MAGIC);
+  }
+
+  @Override
+  public void onFrame(P3LX lx, LXEngine.Frame frame) {
+    int sequence = lx.getUIFrameSequence();
+    if (sequence != this.lastSequence) {
+      this.lastSequence = sequence;
+      record(frame, sequence);
+    }
+  }
+
+  /**
+   * Appends a frame to the ring
+   *
+   * @param frame Frame to record
+   * @param sequence UI frame sequence number
+   */
+  public synchronized void record(LXEngine.Frame frame, int sequence) {
+    if (this.closed) {
+      return;
+    }
+    long frameNumber = this.frameCount;
+    int slot = (int) (frameNumber % this.capacity);
+    MappedByteBuffer segment = this.segments[slot / this.slotsPerSegment];
+    IntBuffer ints = this.segmentInts[slot / this.slotsPerSegment];
+    int offset = (slot % this.slotsPerSegment) * this.slotSize;
+
+    int[] colors = frame.getColors();
+    int numPoints = Math.min(colors.length, this.maxPoints);
+
+    // Readers in other processes only see the ordering of these writes
+    // through the fences, the buffer puts alone may be reordered
+    segment.putLong(offset + SLOT_FRAME_NUMBER, -1);
+    storeFence();
+    segment.putLong(offset + SLOT_TIME_NANOS, System.nanoTime() - this.startNanos);
+    segment.putInt(offset + SLOT_MODEL_GENERATION, frame.getModel().getGeneration());
+    segment.putInt(offset + SLOT_MODEL_SIZE, colors.length);
+    segment.putInt(offset + SLOT_NUM_POINTS, numPoints);
+    segment.putInt(offset + SLOT_SEQUENCE, sequence);
+    ints.position((offset + SLOT_HEADER_SIZE) >> 2);
+    ints.put(colors, 0, numPoints);
+    storeFence();
+    segment.putLong(offset + SLOT_FRAME_NUMBER, frameNumber);
+    storeFence();
+
+    this.frameCount = frameNumber + 1;
+    this.header.putLong(HEADER_FRAME_COUNT, this.frameCount);
+  }
+
+  /**
+   * Total number of frames recorded, including those since overwritten
+   *
+   * @return Number of frames recorded
+   */
+  public synchronized long getFrameCount() {
+    return this.frameCount;
+  }
+
+  /**
+   * Flushes the mapped file to disk and closes it. Further frames are ignored.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (!this.closed) {
+      this.closed = true;
+      this.header.force();
+      for (MappedByteBuffer segment : this.segments) {
+        segment.force();
+      }
+      this.channel.close();
+      this.file.close();
+    }
+  }
+
+  private static void closeQuietly(RandomAccessFile file) {
+    try {
+      file.close();
+    } catch (IOException iox) {
+      P3LX.error(iox, "Could not close frame recording after failed setup");
+    }
+  }
+
+  // Java 8 has no public fence API, Unsafe provides one. Without it, a
+  // volatile access stands in, which HotSpot implements with the same
+  // barriers.
+  private static final MethodHandle STORE_FENCE;
+  private static final MethodHandle LOAD_FENCE;
+  private static volatile int fence = 0;
+
+  static {
+    MethodHandle storeFence = null;
+    MethodHandle loadFence = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Object unsafe = theUnsafe.get(null);
+      MethodType type = MethodType.methodType(void.class);
+      storeFence = MethodHandles.lookup().findVirtual(unsafeClass, "storeFence", type).bindTo(unsafe);
+      loadFence = MethodHandles.lookup().findVirtual(unsafeClass, "loadFence", type).bindTo(unsafe);
+    } catch (Exception x) {
+      P3LX.log("FrameRecorder: Unsafe fences unavailable, using volatile accesses");
+    }
+    STORE_FENCE = storeFence;
+    LOAD_FENCE = loadFence;
+  }
+
+  /**
+   * Keeps writes to the mapping before this from being reordered with those
+   * after it
+   */
+  private static void storeFence() {
+    if (STORE_FENCE == null) {
+      fence = 0;
+      return;
+    }
+    try {
+      STORE_FENCE.invokeExact();
+    } catch (Throwable x) {
+      throw new RuntimeException(x);
+    }
+  }
+
+  /**
+   * Keeps reads from the mapping before this from being reordered with those
+   * after it
+   */
+  private static void loadFence() {
+    if (LOAD_FENCE == null) {
+      if (fence != 0) {
+        fence = 0;
+      }
+      return;
+    }
+    try {
+      LOAD_FENCE.invokeExact();
+    } catch (Throwable x) {
+      throw new RuntimeException(x);
+    }
+  }
+
+  /**
+   * A recorded frame, filled in by Reader.read()
+   */
+  public static class Frame {
+    public long frameNumber = -1;
+    public long timeNanos = 0;
+    public int modelGeneration = 0;
+    public int modelSize = 0;
+    public int numPoints = 0;
+    public int sequence = 0;
+    public int[] colors = new int[0];
+  }
+
+  /**
+   * Reads frames from a recording, which may still be being written by
+   * another process
+   */
+  public static class Reader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] segments;
+    private final IntBuffer[] segmentInts;
+
+    public final int maxPoints;
+    public final int capacity;
+    public final long startMillis;
+
+    private final int slotSize;
+    private final int slotsPerSegment;
+
+    public Reader(File file) throws IOException {
+      this.file = new RandomAccessFile(file, "r");
+      try {
+        this.channel = this.file.getChannel();
+        this.header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        this.header.order(ByteOrder.LITTLE_ENDIAN);
+        if (this.header.getInt(HEADER_MAGIC) != MAGIC) {
+          throw new IOException("Not a frame recording: " + file);
+        }
+        if (this.header.getInt(HEADER_VERSION) != VERSION) {
+          throw new IOException("Unsupported frame recording version: " + this.header.getInt(HEADER_VERSION));
+        }
+        this.slotSize = this.header.getInt(HEADER_SLOT_SIZE);
+        this.maxPoints = this.header.getInt(HEADER_MAX_POINTS);
+        this.capacity = this.header.getInt(HEADER_CAPACITY);
+        this.startMillis = this.header.getLong(HEADER_START_MILLIS);
+        this.slotsPerSegment = (int) Math.min(this.capacity, MAX_SEGMENT_SIZE / this.slotSize);
+
+        int numSegments = (this.capacity + this.slotsPerSegment - 1) / this.slotsPerSegment;
+        this.segments = new MappedByteBuffer[numSegments];
+        this.segmentInts = new IntBuffer[numSegments];
+        for (int i = 0; i < numSegments; ++i) {
+          int numSlots = Math.min(this.slotsPerSegment, this.capacity - i * this.slotsPerSegment);
+          this.segments[i] = this.channel.map(
+            FileChannel.MapMode.READ_ONLY,
+            HEADER_SIZE + (long) i * this.slotsPerSegment * this.slotSize,
+            (long) numSlots * this.slotSize
+          );
+          this.segments[i].order(ByteOrder.LITTLE_ENDIAN);
+          this.segmentInts[i] = this.segments[i].asIntBuffer();
+        }
+      } catch (IOException | RuntimeException x) {
+        closeQuietly(this.file);
+        throw x;
+      }
+    }
+
+    /**
+     * Total number of frames recorded so far
+     *
+     * @return Frame count
+     */
+    public long getFrameCount() {
+      return this.header.getLong(HEADER_FRAME_COUNT);
+    }
+
+    /**
+     * Number of the oldest frame that is still in the ring
+     *
+     * @return Oldest available frame number
+     */
+    public long getFirstFrame() {
+      return Math.max(0, getFrameCount() - this.capacity);
+    }
+
+    /**
+     * Gets the time at which a frame was recorded, without reading its colors
+     *
+     * @param frameNumber Frame number
+     * @return Nanoseconds since the start of recording, or -1 if the frame is not available
+     */
+    public long getTimeNanos(long frameNumber) {
+      if ((frameNumber < 0) || (frameNumber >= getFrameCount())) {
+        return -1;
+      }
+      int slot = (int) (frameNumber % this.capacity);
+      MappedByteBuffer segment = this.segments[slot / this.slotsPerSegment];
+      int offset = (slot % this.slotsPerSegment) * this.slotSize;
+      if (segment.getLong(offset + SLOT_FRAME_NUMBER) != frameNumber) {
+        return -1;
+      }
+      loadFence();
+      long timeNanos = segment.getLong(offset + SLOT_TIME_NANOS);
+      loadFence();
+      if (segment.getLong(offset + SLOT_FRAME_NUMBER) != frameNumber) {
+        return -1;
+      }
+      return timeNanos;
+    }
+
+    /**
+     * Reads a frame by number
+     *
+     * @param frameNumber Frame number, from getFirstFrame() to getFrameCount() - 1
+     * @param frame Frame to fill in, its color array is grown as needed
+     * @return true if the frame was read, false if it has been overwritten or is being written
+     */
+    public synchronized boolean read(long frameNumber, Frame frame) {
+      if ((frameNumber < 0) || (frameNumber >= getFrameCount())) {
+        return false;
+      }
+      int slot = (int) (frameNumber % this.capacity);
+      MappedByteBuffer segment = this.segments[slot / this.slotsPerSegment];
+      IntBuffer ints = this.segmentInts[slot / this.slotsPerSegment];
+      int offset = (slot % this.slotsPerSegment) * this.slotSize;
+
+      if (segment.getLong(offset + SLOT_FRAME_NUMBER) != frameNumber) {
+        return false;
+      }
+      loadFence();
+      frame.timeNanos = segment.getLong(offset + SLOT_TIME_NANOS);
+      frame.modelGeneration = segment.getInt(offset + SLOT_MODEL_GENERATION);
+      frame.modelSize = segment.getInt(offset + SLOT_MODEL_SIZE);
+      frame.numPoints = Math.min(segment.getInt(offset + SLOT_NUM_POINTS), this.maxPoints);
+      frame.sequence = segment.getInt(offset + SLOT_SEQUENCE);
+      if (frame.colors.length < frame.numPoints) {
+        frame.colors = new int[frame.numPoints];
+      }
+      ints.position((offset + SLOT_HEADER_SIZE) >> 2);
+      ints.get(frame.colors, 0, frame.numPoints);
+
+      // The writer may have lapped us while copying
+      loadFence();
+      if (segment.getLong(offset + SLOT_FRAME_NUMBER) != frameNumber) {
+        return false;
+      }
+      frame.frameNumber = frameNumber;
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.channel.close();
+      this.file.close();
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx;
+
+import heronarts.lx.LXEngine;
+
+/**
+ * Source of the frames displayed by the UI. This is normally the P3LX
+ * instance itself, but may be substituted, e.g. by a FramePlayer to review
+ * a recording.
+ */
+public interface FrameSource {
+
+  /**
+   * Gets the frame to display. It is recycled and must not be retained.
+   *
+   * @return Frame to display
+   */
+  public LXEngine.Frame getUIFrame();
+
+  /**
+   * Gets a sequence number that changes whenever the contents of the frame
+   * differ from the one previously returned
+   *
+   * @return Frame sequence number
+   */
+  public int getUIFrameSequence();
+
+}
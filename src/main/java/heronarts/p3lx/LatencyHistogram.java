@@ -0,0 +1,316 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-memory histogram of latencies in nanoseconds, for profiling. Buckets
+ * are log-linear: each power of two is split into equal sub-buckets, so the
+ * relative error of any reported value is bounded at about 3%. Samples are
+ * recorded into a ring of time windows so that statistics can be queried over
+ * a recent period as well as in aggregate.
+ *
+ * Recording never allocates. A histogram should only be recorded into by one
+ * thread at a time. It may be queried from other threads, in which case
+ * results can be marginally out of date but are otherwise consistent.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Values are clamped to 2^(MAX_EXPONENT+1) nanoseconds, around 36 minutes
+   */
+  private static final int MAX_EXPONENT = 40;
+  private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+  private static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  public static final int DEFAULT_NUM_WINDOWS = 10;
+  public static final long DEFAULT_WINDOW_NANOS = 1000000000L;
+
+  /**
+   * Label of this histogram, for display
+   */
+  public final String label;
+
+  private final int numWindows;
+  private final long windowNanos;
+
+  private final int[][] counts;
+  private final long[] windowCount;
+  private final long[] windowMax;
+  private final long[] windowStart;
+  private volatile int window = 0;
+
+  /**
+   * Creates a histogram with 10 windows of 1 second each
+   *
+   * @param label Label
+   */
+  public LatencyHistogram(String label) {
+    this(label, DEFAULT_NUM_WINDOWS, DEFAULT_WINDOW_NANOS);
+  }
+
+  /**
+   * Creates a histogram
+   *
+   * @param label Label
+   * @param numWindows Number of time windows to keep
+   * @param windowNanos Duration of each window in nanoseconds
+   */
+  public LatencyHistogram(String label, int numWindows, long windowNanos) {
+    if (numWindows < 1) {
+      throw new IllegalArgumentException("LatencyHistogram must have at least one window: " + numWindows);
+    }
+    this.label = label;
+    this.numWindows = numWindows;
+    this.windowNanos = windowNanos;
+    this.counts = new int[numWindows][NUM_BUCKETS];
+    this.windowCount = new long[numWindows];
+    this.windowMax = new long[numWindows];
+    this.windowStart = new long[numWindows];
+    this.windowStart[0] = System.nanoTime();
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (value < 0) ? 0 : (int) value;
+    }
+    value = Math.min(value, MAX_VALUE);
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+    return (shift + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Largest value that falls into the given bucket
+   */
+  static long bucketValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long subBucket = index % SUB_BUCKETS;
+    return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+  }
+
+  /**
+   * Records a latency sample
+   *
+   * @param nanos Latency in nanoseconds
+   */
+  public void record(long nanos) {
+    long now = System.nanoTime();
+    int w = this.window;
+    if (now - this.windowStart[w] >= this.windowNanos) {
+      w = advance(now);
+    }
+    ++this.counts[w][bucketIndex(nanos)];
+    ++this.windowCount[w];
+    if (nanos > this.windowMax[w]) {
+      this.windowMax[w] = nanos;
+    }
+  }
+
+  private int advance(long now) {
+    int w = this.window;
+    long elapsed = (now - this.windowStart[w]) / this.windowNanos;
+    long start = this.windowStart[w] + elapsed * this.windowNanos;
+    int skip = (int) Math.min(elapsed, this.numWindows);
+    for (int i = 0; i < skip; ++i) {
+      w = (w + 1) % this.numWindows;
+      clearWindow(w);
+      // Windows skipped over with no samples are stamped as if they were current
+      this.windowStart[w] = start - (skip - 1 - i) * this.windowNanos;
+    }
+    this.window = w;
+    return w;
+  }
+
+  private void clearWindow(int w) {
+    Arrays.fill(this.counts[w], 0);
+    this.windowCount[w] = 0;
+    this.windowMax[w] = 0;
+  }
+
+  /**
+   * Clears all samples. Should be called from the recording thread.
+   */
+  public void reset() {
+    for (int w = 0; w < this.numWindows; ++w) {
+      clearWindow(w);
+    }
+    this.window = 0;
+    this.windowStart[0] = System.nanoTime();
+  }
+
+  /**
+   * Number of time windows kept
+   *
+   * @return Number of windows
+   */
+  public int getNumWindows() {
+    return this.numWindows;
+  }
+
+  /**
+   * Duration of each time window
+   *
+   * @return Window duration in nanoseconds
+   */
+  public long getWindowNanos() {
+    return this.windowNanos;
+  }
+
+  /**
+   * Whether the window that is the given number of windows before the current
+   * one holds samples from within the queried period
+   */
+  private boolean inPeriod(int w, int windows, long now) {
+    return (now - this.windowStart[w]) < windows * this.windowNanos;
+  }
+
+  /**
+   * Total number of samples over all windows
+   *
+   * @return Sample count
+   */
+  public long getCount() {
+    return getCount(this.numWindows);
+  }
+
+  /**
+   * Number of samples within the most recent windows
+   *
+   * @param windows Number of windows, including the current one
+   * @return Sample count
+   */
+  public long getCount(int windows) {
+    windows = Math.min(windows, this.numWindows);
+    long now = System.nanoTime();
+    long count = 0;
+    for (int i = 0, w = this.window; i < windows; ++i, w = (w + this.numWindows - 1) % this.numWindows) {
+      if (inPeriod(w, windows, now)) {
+        count += this.windowCount[w];
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Maximum latency over all windows
+   *
+   * @return Maximum in nanoseconds
+   */
+  public long getMax() {
+    return getMax(this.numWindows);
+  }
+
+  /**
+   * Maximum latency within the most recent windows
+   *
+   * @param windows Number of windows, including the current one
+   * @return Maximum in nanoseconds
+   */
+  public long getMax(int windows) {
+    windows = Math.min(windows, this.numWindows);
+    long now = System.nanoTime();
+    long max = 0;
+    for (int i = 0, w = this.window; i < windows; ++i, w = (w + this.numWindows - 1) % this.numWindows) {
+      if (inPeriod(w, windows, now)) {
+        max = Math.max(max, this.windowMax[w]);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Latency at the given percentile over all windows
+   *
+   * @param percentile Percentile, from 0-100
+   * @return Latency in nanoseconds
+   */
+  public long getPercentile(double percentile) {
+    return getPercentile(percentile, this.numWindows);
+  }
+
+  /**
+   * Latency at the given percentile within the most recent windows. The value
+   * returned is the upper bound of the bucket the percentile falls in, and is
+   * never greater than the maximum recorded value.
+   *
+   * @param percentile Percentile, from 0-100
+   * @param windows Number of windows, including the current one
+   * @return Latency in nanoseconds
+   */
+  public long getPercentile(double percentile, int windows) {
+    windows = Math.min(windows, this.numWindows);
+    long total = getCount(windows);
+    if (total == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.));
+    long now = System.nanoTime();
+    long count = 0;
+    for (int b = 0; b < NUM_BUCKETS; ++b) {
+      for (int i = 0, w = this.window; i < windows; ++i, w = (w + this.numWindows - 1) % this.numWindows) {
+        if (inPeriod(w, windows, now)) {
+          count += this.counts[w][b];
+        }
+      }
+      if (count >= target) {
+        return Math.min(bucketValue(b), getMax(windows));
+      }
+    }
+    return getMax(windows);
+  }
+
+  public long getP50() {
+    return getPercentile(50);
+  }
+
+  public long getP90() {
+    return getPercentile(90);
+  }
+
+  public long getP99() {
+    return getPercentile(99);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms n=%d",
+      this.label,
+      getP50() / 1e6,
+      getP90() / 1e6,
+      getP99() / 1e6,
+      getMax() / 1e6,
+      getCount()
+    );
+  }
+}
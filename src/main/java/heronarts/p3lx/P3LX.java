@@ -27,11 +27,23 @@ package heronarts.p3lx;
 import heronarts.p3lx.ui.UI;
 import java.awt.Toolkit;
 import java.awt.datatransfer.StringSelection;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
 import heronarts.lx.LX;
 import heronarts.lx.LXComponent;
 import heronarts.lx.LXEngine;
+import heronarts.lx.LXLoopTask;
 import heronarts.lx.effect.LXEffect;
 import heronarts.lx.model.LXModel;
 import heronarts.lx.pattern.LXPattern;
@@ -43,11 +55,135 @@ import processing.core.PGraphics;
 /**
  * Harness to run LX inside a Processing 3 sketch
  */
-public class P3LX extends LX {
+public class P3LX extends LX implements FrameSource {
 
   public final static String VERSION = LX.VERSION;
 
-  private final LXEngine.Frame uiFrame;
+  private LXEngine.Frame uiFrame;
+
+  /**
+   * Number of colors sampled before falling back to a full comparison
+   */
+  private static final int FRAME_CHANGE_PROBES = 32;
+
+  /**
+   * Whether a frame's colors differ from the previous frame's. An animating
+   * frame almost always differs somewhere in a strided sample, which costs a
+   * fixed handful of reads. The full comparison only runs when the sample
+   * matches, which is when the frame looks static and consumers are about to
+   * go idle on it.
+   *
+   * @param colors New frame colors
+   * @param previous Previous frame colors
+   * @param seed Varies the sampled offset between frames
+   * @return Whether the colors changed
+   */
+  private static boolean colorsChanged(int[] colors, int[] previous, int seed) {
+    if (colors.length != previous.length) {
+      return true;
+    }
+    int stride = colors.length / FRAME_CHANGE_PROBES;
+    if (stride > 1) {
+      for (int i = (seed & Integer.MAX_VALUE) % stride; i < colors.length; i += stride) {
+        if (colors[i] != previous[i]) {
+          return true;
+        }
+      }
+    }
+    return !Arrays.equals(colors, previous);
+  }
+
+  /**
+   * Frames that the engine's colors are copied into when the engine is run
+   * on the UI thread, alternating so the current UI frame can be compared
+   * against the new one
+   */
+  private final LXEngine.Frame[] localFrames = new LXEngine.Frame[2];
+  private int localFrameIndex = 0;
+
+  /**
+   * Lock-free handoff of completed frames from the engine thread when the
+   * engine is threaded, over a triple buffer of frames. The engine always has
+   * a frame to write and the UI a frame to read, so neither side ever waits on
+   * the other and the UI never copies the colors.
+   */
+  private class FrameHandoff implements LXLoopTask {
+
+    private final TripleBuffer<LXEngine.Frame> frames = new TripleBuffer<LXEngine.Frame>(
+      new LXEngine.Frame(P3LX.this),
+      new LXEngine.Frame(P3LX.this),
+      new LXEngine.Frame(P3LX.this)
+    );
+
+    // Per-frame sequence number and model generation, written by the engine
+    // before publishing and read by the UI after picking up
+    private final int[] sequence = new int[3];
+    private final int[] modelGeneration = new int[3];
+
+    // Engine thread state
+    private int lastPublishedIndex = -1;
+    private int engineSequence = 0;
+
+    // UI thread state
+    private int readSequence = -1;
+
+    /**
+     * Invoked on the engine thread, publishes the most recently completed frame
+     */
+    @Override
+    public void loop(double deltaMs) {
+      if (!engine.isThreaded()) {
+        return;
+      }
+      long copyStart = System.nanoTime();
+      int writeIndex = this.frames.getWriteIndex();
+      LXEngine.Frame frame = this.frames.get(writeIndex);
+      engine.copyFrameThreadSafe(frame);
+      LXModel model = frame.getModel();
+      int modelGeneration = model.getGeneration();
+
+      // The last published frame is safe to read here, it is either still
+      // published or held by the UI, neither of which write to it
+      boolean changed = true;
+      if (this.lastPublishedIndex >= 0) {
+        LXEngine.Frame last = this.frames.get(this.lastPublishedIndex);
+        changed =
+          (model != last.getModel()) ||
+          (modelGeneration != this.modelGeneration[this.lastPublishedIndex]) ||
+          colorsChanged(frame.getColors(), last.getColors(), this.engineSequence);
+      }
+      if (changed) {
+        ++this.engineSequence;
+      }
+      this.sequence[writeIndex] = this.engineSequence;
+      this.modelGeneration[writeIndex] = modelGeneration;
+      this.lastPublishedIndex = writeIndex;
+      this.frames.publish();
+      profiler.frameCopy.record(System.nanoTime() - copyStart);
+    }
+
+    /**
+     * Invoked on the UI thread, makes the latest published frame the UI frame
+     */
+    private void pickup() {
+      if (!this.frames.pickup()) {
+        return;
+      }
+      int readIndex = this.frames.getReadIndex();
+      uiFrame = this.frames.get(readIndex);
+      uiFrameModelGeneration = this.modelGeneration[readIndex];
+      if (this.sequence[readIndex] != this.readSequence) {
+        this.readSequence = this.sequence[readIndex];
+        ++uiFrameSequence;
+      }
+    }
+  }
+
+  private final FrameHandoff frameHandoff;
+
+  private int uiFrameModelGeneration = -1;
+
+  private int uiFrameSequence = 0;
 
   /**
    * Returns the version of the library.
@@ -73,6 +209,17 @@ public class P3LX extends LX {
     public boolean showFramerate = false;
     public boolean headless = false;
 
+    /**
+     * Whether to load the UI theme's fonts and icons in parallel on a
+     * background pool at startup, rather than on first use
+     */
+    public boolean preloadTheme = false;
+
+    /**
+     * Rate at which startHeadless() drives the engine, in frames per second
+     */
+    public float headlessFrameRate = 60;
+
     public Flags(PApplet applet) {
       this.isP3LX = true;
       this.mediaPath = applet.sketchPath();
@@ -84,6 +231,17 @@ public class P3LX extends LX {
   public class Profiler {
     public long drawNanos = 0;
     public long engineNanos = 0;
+
+    /**
+     * Time spent running the engine on the UI thread, when it is not threaded
+     */
+    public final LatencyHistogram engineRun = new LatencyHistogram("Engine Run");
+
+    /**
+     * Time spent copying and comparing the engine frame. This is recorded on
+     * the engine thread when the engine is threaded.
+     */
+    public final LatencyHistogram frameCopy = new LatencyHistogram("Frame Copy");
   }
 
   public final Profiler profiler = new Profiler();
@@ -119,14 +277,20 @@ public class P3LX extends LX {
     }
 
     // Initialize frame
-    this.uiFrame = new LXEngine.Frame(this);
+    this.localFrames[0] = new LXEngine.Frame(this);
+    this.localFrames[1] = new LXEngine.Frame(this);
+    this.uiFrame = this.localFrames[this.localFrameIndex++];
     this.engine.getFrameNonThreadSafe(this.uiFrame);
+    this.uiFrameModelGeneration = this.uiFrame.getModel().getGeneration();
+    this.frameHandoff = new FrameHandoff();
+    this.engine.addLoopTask(this.frameHandoff);
 
     applet.registerMethod("draw", this);
     applet.registerMethod("dispose", this);
     LX.initProfiler.log("P3LX: registerMethod");
 
     if (flags.headless) {
+      this.headlessFrameRate = flags.headlessFrameRate;
       this.ui = null;
     } else {
       this.ui = buildUI();
@@ -165,6 +329,7 @@ public class P3LX extends LX {
    */
   @Override
   public void dispose() {
+    stopHeadless();
     // Stops and joins the LX engine thread, if separate
     this.engine.onP3DidDispose();
     super.dispose();
@@ -186,19 +351,63 @@ public class P3LX extends LX {
   }
 
   /**
-   * Returns the last rendered frame
+   * Returns the last rendered frame. The frame object is recycled, so it should
+   * be fetched again on each draw rather than held on to.
    *
    * @return The frame to be shown on the UI
    */
+  @Override
   public final LXEngine.Frame getUIFrame() {
     return this.uiFrame;
   }
 
+  /**
+   * Returns a sequence number for the UI frame. This only changes when the
+   * contents of the frame differ from the one previously shown, so that UI
+   * components can skip work when the engine has not produced anything new,
+   * e.g. because it is paused or running at a lower rate than the UI.
+   *
+   * @return Sequence number of the frame returned by getUIFrame()
+   */
+  @Override
+  public final int getUIFrameSequence() {
+    return this.uiFrameSequence;
+  }
+
+  /**
+   * Runs the engine on the UI thread and makes its output the UI frame if the
+   * contents have changed
+   */
+  private void runLocalFrame() {
+    long runStart = System.nanoTime();
+    this.engine.run();
+    long copyStart = System.nanoTime();
+    this.profiler.engineRun.record(copyStart - runStart);
+    LXEngine.Frame frame = this.localFrames[this.localFrameIndex];
+    this.engine.getFrameNonThreadSafe(frame);
+    LXModel model = frame.getModel();
+    int modelGeneration = model.getGeneration();
+    if ((model != this.uiFrame.getModel()) ||
+        (modelGeneration != this.uiFrameModelGeneration) ||
+        colorsChanged(frame.getColors(), this.uiFrame.getColors(), this.uiFrameSequence)) {
+      this.uiFrame = frame;
+      this.uiFrameModelGeneration = modelGeneration;
+      this.localFrameIndex = 1 - this.localFrameIndex;
+      ++this.uiFrameSequence;
+    }
+    this.profiler.frameCopy.record(System.nanoTime() - copyStart);
+  }
+
   /**
    * Core function invoked by the processing engine on each iteration of the run
    * cycle.
    */
   public void draw() {
+    if (this.headlessDriver != null) {
+      // The headless driver thread has taken over running the engine
+      return;
+    }
+
     long drawStart = System.nanoTime();
 
     long engineStart = System.nanoTime();
@@ -209,12 +418,13 @@ public class P3LX extends LX {
     this.engine.beforeP3LXDraw();
 
     if (this.engine.isThreaded()) {
-      // NOTE: because we don't hold a lock, it is *possible* that the
-      // engine stops being in threading mode just between these lines,
-      // triggered by some action on the engine thread itself. It's okay
-      // if this happens, worst side effect is the UI getting the last frame
-      // from the copy buffer.
-      this.engine.copyFrameThreadSafe(this.uiFrame);
+      // The engine thread publishes its frames as they complete, pick up the
+      // latest if there's a new one. NOTE: because we don't hold a lock, it is
+      // *possible* that the engine stops being in threading mode just between
+      // these lines, triggered by some action on the engine thread itself. It's
+      // okay if this happens, worst side effect is the UI showing the last
+      // published frame.
+      this.frameHandoff.pickup();
       if (this.flags.showFramerate) {
         frameRateStr =
           "Engine: " + this.engine.getActualFrameRate() + " " +
@@ -228,8 +438,7 @@ public class P3LX extends LX {
       // we can just use its color buffer, as there is no thread contention.
       // We don't need to worry about lock contention because we are
       // currently on the only thread that *could* start the engine.
-      this.engine.run();
-      this.engine.getFrameNonThreadSafe(this.uiFrame);
+      runLocalFrame();
       if (this.flags.showFramerate) {
         frameRateStr = "Framerate: " + this.applet.frameRate;
         if (this.engine.isNetworkMultithreaded.isOn()) {
@@ -239,6 +448,8 @@ public class P3LX extends LX {
     }
     this.profiler.engineNanos = System.nanoTime() - engineStart;
 
+    notifyFrameListeners();
+
     // Print framerate
     if (this.flags.showFramerate) {
       PApplet.println(frameRateStr);
@@ -247,26 +458,244 @@ public class P3LX extends LX {
     this.profiler.drawNanos = System.nanoTime() - drawStart;
   }
 
+  /**
+   * Listener invoked with the UI frame on each iteration, either by draw()
+   * or by the headless driver
+   */
+  public interface FrameListener {
+    /**
+     * Invoked on the animation thread, or the headless driver thread, after
+     * the UI frame has been updated. The frame is recycled and must not be
+     * retained. Use getUIFrameSequence() to skip frames whose contents have
+     * not changed.
+     *
+     * @param lx P3LX instance
+     * @param frame The current UI frame
+     */
+    public void onFrame(P3LX lx, LXEngine.Frame frame);
+  }
+
+  /**
+   * Copied on write, so that notifying listeners does not allocate
+   */
+  private volatile FrameListener[] frameListeners = new FrameListener[0];
+
+  private volatile float headlessFrameRate = 60;
+
+  private volatile HeadlessDriver headlessDriver = null;
+
+  /**
+   * Registers a listener for UI frames, e.g. to send output or record them
+   *
+   * @param listener Frame listener
+   * @return this
+   */
+  public synchronized P3LX addFrameListener(FrameListener listener) {
+    if (Arrays.asList(this.frameListeners).contains(listener)) {
+      throw new IllegalStateException("Cannot add duplicate P3LX.FrameListener: " + listener);
+    }
+    FrameListener[] frameListeners = Arrays.copyOf(this.frameListeners, this.frameListeners.length + 1);
+    frameListeners[frameListeners.length - 1] = listener;
+    this.frameListeners = frameListeners;
+    return this;
+  }
+
+  /**
+   * Unregisters a frame listener
+   *
+   * @param listener Frame listener
+   * @return this
+   */
+  public synchronized P3LX removeFrameListener(FrameListener listener) {
+    List<FrameListener> frameListeners = new ArrayList<FrameListener>(Arrays.asList(this.frameListeners));
+    if (frameListeners.remove(listener)) {
+      this.frameListeners = frameListeners.toArray(new FrameListener[frameListeners.size()]);
+    }
+    return this;
+  }
+
+  private void notifyFrameListeners() {
+    for (FrameListener listener : this.frameListeners) {
+      listener.onFrame(this, this.uiFrame);
+    }
+  }
+
+  /**
+   * Sets the rate at which the headless driver runs the engine. This may be
+   * changed while the driver is running.
+   *
+   * @param headlessFrameRate Frames per second
+   * @return this
+   */
+  public P3LX setHeadlessFrameRate(float headlessFrameRate) {
+    if (headlessFrameRate <= 0) {
+      throw new IllegalArgumentException("Headless frame rate must be positive: " + headlessFrameRate);
+    }
+    this.headlessFrameRate = headlessFrameRate;
+    return this;
+  }
+
+  /**
+   * Starts driving the engine from a dedicated thread at the headless frame
+   * rate. This is only available when the headless flag is set. Until it is
+   * called, a headless P3LX is driven by the sketch's draw() like any other,
+   * and once it is, draw() no longer runs the engine. Call this from setup()
+   * or another method on the animation thread, or before the sketch has a
+   * surface at all.
+   *
+   * The engine is run directly on the driver thread, unless the engine is in
+   * threaded mode, in which case the engine thread runs it and the driver
+   * only picks up and publishes its frames.
+   *
+   * @return this
+   */
+  public synchronized P3LX startHeadless() {
+    if (!this.flags.headless) {
+      throw new IllegalStateException("P3LX.startHeadless() requires the headless flag");
+    }
+    if (this.headlessDriver == null) {
+      this.headlessDriver = new HeadlessDriver();
+      this.headlessDriver.start();
+    }
+    return this;
+  }
+
+  /**
+   * Stops the headless driver thread, if running, and waits for it to finish
+   * its current frame
+   *
+   * @return this
+   */
+  public synchronized P3LX stopHeadless() {
+    if (this.headlessDriver != null) {
+      this.headlessDriver.running = false;
+      LockSupport.unpark(this.headlessDriver);
+      if (Thread.currentThread() != this.headlessDriver) {
+        try {
+          this.headlessDriver.join();
+        } catch (InterruptedException ix) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      this.headlessDriver = null;
+    }
+    return this;
+  }
+
+  /**
+   * Whether the headless driver is running
+   *
+   * @return true if the engine is being driven headlessly
+   */
+  public boolean isHeadlessRunning() {
+    return this.headlessDriver != null;
+  }
+
+  /**
+   * Runs the engine at a fixed rate against System.nanoTime() deadlines, or
+   * picks up the engine thread's frames at that rate when the engine is
+   * threaded. If a frame overruns by more than a full period the schedule is
+   * reset rather than running a burst of frames to catch up.
+   */
+  private class HeadlessDriver extends Thread {
+
+    private volatile boolean running = true;
+
+    private HeadlessDriver() {
+      super("P3LX Headless Engine");
+    }
+
+    @Override
+    public void run() {
+      long deadline = System.nanoTime();
+      while (this.running) {
+        try {
+          // Stands in for draw(), which is where the engine thread is started
+          // or stopped when the threading mode changes
+          engine.beforeP3LXDraw();
+          if (engine.isThreaded()) {
+            frameHandoff.pickup();
+          } else {
+            runLocalFrame();
+          }
+          notifyFrameListeners();
+        } catch (Exception x) {
+          error(x, "Exception in headless engine frame: " + x.getLocalizedMessage());
+        }
+
+        long periodNanos = (long) (1e9 / headlessFrameRate);
+        deadline += periodNanos;
+        long now = System.nanoTime();
+        if (now - deadline > periodNanos) {
+          deadline = now;
+        }
+        long remaining;
+        while (this.running && (remaining = deadline - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(remaining);
+        }
+      }
+    }
+  }
+
+  private static final MethodType INSTANTIATE_TYPE =
+    MethodType.methodType(Object.class, PApplet.class, LX.class);
+
+  /**
+   * Constructor handles for component classes, adapted to INSTANTIATE_TYPE so
+   * that repeat instantiation skips the reflective lookups
+   */
+  private final Map<Class<?>, MethodHandle> constructorCache =
+    new ConcurrentHashMap<Class<?>, MethodHandle>();
+
   @Override
   public <T extends LXComponent> T instantiateComponent(Class<? extends T> cls, Class<T> type) {
+    MethodHandle constructor = this.constructorCache.get(cls);
+    if (constructor == null) {
+      try {
+        constructor = resolveConstructor(cls);
+      } catch (Exception x) {
+        error(x, "Component instantiation failed: " + x.getLocalizedMessage());
+        return null;
+      }
+      this.constructorCache.put(cls, constructor);
+    }
+    try {
+      return cls.cast(constructor.invokeExact(this.applet, (LX) this));
+    } catch (Throwable x) {
+      // Wrapped as Constructor.newInstance() would, whatever was thrown
+      error(new InvocationTargetException(x), "Component instantiation failed: " + x.getLocalizedMessage());
+    }
+    return null;
+  }
+
+  /**
+   * Finds the constructor to use for a component class, in order of preference:
+   * (LX), (), (Applet, LX) for sketch inner classes, and (Applet).
+   */
+  private MethodHandle resolveConstructor(Class<?> cls) throws NoSuchMethodException, IllegalAccessException {
+    Class<?> appletClass = this.applet.getClass();
+    MethodHandle handle;
     try {
+      handle = unreflectConstructor(cls.getConstructor(LX.class));
+      handle = MethodHandles.dropArguments(handle, 0, PApplet.class);
+    } catch (NoSuchMethodException nsmx) {
       try {
-        return cls.getConstructor(LX.class).newInstance(this);
-      } catch (NoSuchMethodException nsmx) {
+        handle = unreflectConstructor(cls.getConstructor());
+        handle = MethodHandles.dropArguments(handle, 0, PApplet.class, LX.class);
+      } catch (NoSuchMethodException nsmx2) {
         try {
-          return cls.getConstructor().newInstance();
-        } catch (NoSuchMethodException nsmx2) {
-          try {
-            return cls.getConstructor(this.applet.getClass(), LX.class).newInstance(this.applet, this);
-          } catch (NoSuchMethodException nsmx3) {
-            return cls.getConstructor(this.applet.getClass()).newInstance(this.applet);
-          }
+          handle = unreflectConstructor(cls.getConstructor(appletClass, LX.class));
+        } catch (NoSuchMethodException nsmx3) {
+          handle = unreflectConstructor(cls.getConstructor(appletClass));
+          handle = MethodHandles.dropArguments(handle, 1, LX.class);
         }
       }
-    } catch (Exception x) {
-      error(x, "Component instantiation failed: " + x.getLocalizedMessage());
     }
-    return null;
+    return handle.asType(INSTANTIATE_TYPE);
+  }
+
+  private static MethodHandle unreflectConstructor(Constructor<?> constructor) throws IllegalAccessException {
+    return MethodHandles.lookup().unreflectConstructor(constructor);
   }
 
   @Override
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer, handing values from one producer thread to one
+ * consumer thread. There are three slots: one being written by the producer,
+ * one published, and one held by the consumer. The producer publishes by
+ * swapping its written slot for the published one, and the consumer picks up
+ * by swapping the slot it holds for the published one, so neither side ever
+ * waits on the other or sees a slot that the other is still using.
+ *
+ * Slots are identified by an index from 0 to 2, so that callers can keep
+ * their own per-slot state alongside the values.
+ *
+ * @param <T> Type of value in each slot
+ */
+public class TripleBuffer<T> {
+
+  private static final int INDEX_MASK = 0x3;
+  private static final int FRESH = 0x4;
+
+  private final Object[] slots = new Object[3];
+
+  // Index of the published slot, with the FRESH bit set if it has not yet
+  // been picked up by the consumer
+  private final AtomicInteger published = new AtomicInteger(1);
+
+  // Producer thread state
+  private int writeIndex = 0;
+
+  // Consumer thread state
+  private int readIndex = 2;
+
+  /**
+   * Creates a triple buffer over three distinct values
+   *
+   * @param slot0 Initially written by the producer
+   * @param slot1 Initially published
+   * @param slot2 Initially held by the consumer
+   */
+  public TripleBuffer(T slot0, T slot1, T slot2) {
+    this.slots[0] = slot0;
+    this.slots[1] = slot1;
+    this.slots[2] = slot2;
+  }
+
+  /**
+   * Gets a slot by index
+   *
+   * @param index Slot index
+   * @return Value in the slot
+   */
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    return (T) this.slots[index];
+  }
+
+  /**
+   * Index of the slot the producer may write, only valid on the producer thread
+   *
+   * @return Slot index
+   */
+  public int getWriteIndex() {
+    return this.writeIndex;
+  }
+
+  /**
+   * Slot the producer may write, only valid on the producer thread
+   *
+   * @return Value to write
+   */
+  public T getWrite() {
+    return get(this.writeIndex);
+  }
+
+  /**
+   * Invoked on the producer thread, publishes the written slot and takes
+   * another one to write next
+   */
+  public void publish() {
+    this.writeIndex = this.published.getAndSet(this.writeIndex | FRESH) & INDEX_MASK;
+  }
+
+  /**
+   * Invoked on the consumer thread, takes the latest published slot if there
+   * is one it has not already picked up
+   *
+   * @return Whether a new slot was picked up
+   */
+  public boolean pickup() {
+    if ((this.published.get() & FRESH) == 0) {
+      return false;
+    }
+    this.readIndex = this.published.getAndSet(this.readIndex) & INDEX_MASK;
+    return true;
+  }
+
+  /**
+   * Index of the slot the consumer holds, only valid on the consumer thread
+   *
+   * @return Slot index
+   */
+  public int getReadIndex() {
+    return this.readIndex;
+  }
+
+  /**
+   * Slot the consumer holds, only valid on the consumer thread
+   *
+   * @return Value to read
+   */
+  public T getRead() {
+    return get(this.readIndex);
+  }
+}
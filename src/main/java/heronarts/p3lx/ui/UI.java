@@ -38,6 +38,7 @@ import heronarts.lx.parameter.LXNormalizedParameter;
 import heronarts.lx.parameter.LXParameter;
 import heronarts.lx.parameter.LXParameterListener;
 import heronarts.lx.parameter.StringParameter;
+import heronarts.p3lx.LatencyHistogram;
 import heronarts.p3lx.P3LX;
 import heronarts.p3lx.ui.component.UILabel;
 
@@ -49,6 +50,7 @@ import java.util.List;
 import processing.core.PApplet;
 import processing.core.PConstants;
 import processing.core.PFont;
+import processing.core.PGraphics;
 import processing.event.Event;
 import processing.event.KeyEvent;
 import processing.event.MouseEvent;
@@ -136,6 +138,74 @@ public class UI implements LXEngine.Dispatch {
       }
     }
 
+    @Override
+    void draw(UI ui, PGraphics pg) {
+      // Same as UIObject.draw, with each layer timed by its type
+      if (!isVisible()) {
+        return;
+      }
+      beginDraw(ui, pg);
+      onDraw(ui, pg);
+      int numComposites = 0;
+      for (UIObject child : this.mutableChildren) {
+        if (layerCompositing && (child instanceof UI2dContext)) {
+          // Hold onto 2d layers until the run of them is broken
+          this.run.add((UI2dContext) child);
+          continue;
+        }
+        numComposites = drawRun(ui, pg, numComposites);
+        drawLayer(ui, pg, child);
+      }
+      numComposites = drawRun(ui, pg, numComposites);
+      while (this.composites.size() > numComposites) {
+        this.composites.remove(this.composites.size() - 1);
+      }
+      endDraw(ui, pg);
+    }
+
+    /**
+     * Draws the pending run of adjacent 2d layers, through a cached composite
+     * if there is more than one of them.
+     */
+    private int drawRun(UI ui, PGraphics pg, int numComposites) {
+      if (this.run.size() == 1) {
+        drawLayer(ui, pg, this.run.get(0));
+      } else if (this.run.size() > 1) {
+        long runStart = System.nanoTime();
+        if (this.composites.size() == numComposites) {
+          this.composites.add(new UIComposite(ui));
+        }
+        this.composites.get(numComposites++).draw(pg, this.run);
+        this.draw2dNanos += System.nanoTime() - runStart;
+      }
+      this.run.clear();
+      return numComposites;
+    }
+
+    private void drawLayer(UI ui, PGraphics pg, UIObject child) {
+      long layerStart = System.nanoTime();
+      float cx = child.getX();
+      float cy = child.getY();
+      pg.translate(cx, cy);
+      child.draw(ui, pg);
+      pg.translate(-cx, -cy);
+      long layerNanos = System.nanoTime() - layerStart;
+      if (child instanceof UI3dContext) {
+        this.draw3dNanos += layerNanos;
+        this.rendered3d |= ((UI3dContext) child).renderedLastDraw;
+      } else {
+        this.draw2dNanos += layerNanos;
+      }
+    }
+
+    private long draw2dNanos = 0;
+    private long draw3dNanos = 0;
+    private boolean rendered3d = false;
+
+    // Cached composites for each run of adjacent 2d layers, in z-order
+    private final List<UIComposite> composites = new ArrayList<UIComposite>();
+    private final List<UI2dContext> run = new ArrayList<UI2dContext>();
+
     private void redraw() {
       for (UIObject child : this.mutableChildren) {
         if (child instanceof UI2dComponent) {
@@ -248,14 +318,7 @@ public class UI implements LXEngine.Dispatch {
   /**
    * Redraw may be called from any thread
    */
-  private final List<UI2dComponent> threadSafeRedrawList =
-    Collections.synchronizedList(new ArrayList<UI2dComponent>());
-
-  /**
-   * Objects to redraw on current pass thru animation thread
-   */
-  private final List<UI2dComponent> uiThreadRedrawList =
-    new ArrayList<UI2dComponent>();
+  private final UIRedrawQueue redrawQueue = new UIRedrawQueue();
 
   /**
    * Input events coming from the event thread
@@ -270,6 +333,32 @@ public class UI implements LXEngine.Dispatch {
 
   public class Profiler {
     public long drawNanos = 0;
+
+    /**
+     * Running loop tasks through the UI tree
+     */
+    public final LatencyHistogram loop = new LatencyHistogram("UI Loop");
+
+    /**
+     * Marking components that were flagged for redraw
+     */
+    public final LatencyHistogram redraw = new LatencyHistogram("UI Redraw");
+
+    /**
+     * Drawing 2d layers
+     */
+    public final LatencyHistogram draw2d = new LatencyHistogram("UI Draw 2D");
+
+    /**
+     * Drawing 3d layers
+     */
+    public final LatencyHistogram draw3d = new LatencyHistogram("UI Draw 3D");
+
+    /**
+     * Dispatching mouse and keyboard input, which is recorded on the engine
+     * thread when the engine is threaded
+     */
+    public final LatencyHistogram inputDispatch = new LatencyHistogram("UI Input");
   }
 
   public final Profiler profiler = new Profiler();
@@ -293,6 +382,25 @@ public class UI implements LXEngine.Dispatch {
 
   private UIEventHandler topLevelKeyEventHandler = null;
 
+  private static final float DEFAULT_ACTIVE_FRAME_RATE = 60;
+  private static final float DEFAULT_IDLE_FRAME_RATE = 10;
+  private static final long DEFAULT_IDLE_DELAY_MILLIS = 1000;
+
+  private boolean idleThrottling = false;
+  private float activeFrameRate = DEFAULT_ACTIVE_FRAME_RATE;
+  private float idleFrameRate = DEFAULT_IDLE_FRAME_RATE;
+  private long idleDelayMillis = DEFAULT_IDLE_DELAY_MILLIS;
+  private boolean idle = false;
+
+  // Set by whichever thread delivers input, cleared by the UI thread
+  private volatile boolean inputReceived = false;
+  private long lastActiveMillis = 0;
+  private int lastUIFrameSequence = -1;
+
+  private boolean damageOverlay = false;
+
+  private boolean layerCompositing = false;
+
   private class UIContextOverlay extends UI2dContext {
 
     private boolean mousePressed = false;
@@ -413,6 +521,9 @@ public class UI implements LXEngine.Dispatch {
     this.width = this.resizeWidth = lx.applet.width;
     this.height = this.resizeHeight = lx.applet.height;
     this.theme = new UITheme(applet);
+    if (lx.flags.preloadTheme) {
+      this.theme.preload();
+    }
     LX.initProfiler.log("P3LX: UI: Theme");
     this.root = new UIRoot();
     this.contextMenuOverlay = new UIContextOverlay();
@@ -665,6 +776,156 @@ public class UI implements LXEngine.Dispatch {
     return this;
   }
 
+  /**
+   * Sets whether the UI should lower the applet frame rate when it is idle.
+   * The UI is idle when no input has arrived, no component has been marked
+   * for redraw, no 3d context has re-rendered its scene and the engine has
+   * not produced a new frame for the idle delay. Any of these returns the UI
+   * to the active frame rate on the next frame. 3d contexts only count as
+   * idle when they render on demand, see UI3dContext.setRenderOnDemand().
+   *
+   * Throttling only takes effect when the engine is threaded, since otherwise
+   * the engine itself runs at the applet frame rate.
+   *
+   * @param idleThrottling Whether to throttle the frame rate when idle
+   * @return this
+   */
+  public UI setIdleThrottling(boolean idleThrottling) {
+    if (this.idleThrottling != idleThrottling) {
+      this.idleThrottling = idleThrottling;
+      this.lastActiveMillis = System.currentTimeMillis();
+      setIdle(false);
+    }
+    return this;
+  }
+
+  /**
+   * Sets the frame rate that the UI runs at when it is active. This should
+   * match the rate passed to frameRate() in the sketch.
+   *
+   * @param activeFrameRate Frame rate when active
+   * @return this
+   */
+  public UI setActiveFrameRate(float activeFrameRate) {
+    this.activeFrameRate = activeFrameRate;
+    if (this.idleThrottling && !this.idle) {
+      this.applet.frameRate(activeFrameRate);
+    }
+    return this;
+  }
+
+  /**
+   * Sets the frame rate that the UI drops to when it is idle. This bounds the
+   * latency with which input or a new engine frame is picked up.
+   *
+   * @param idleFrameRate Frame rate when idle
+   * @return this
+   */
+  public UI setIdleFrameRate(float idleFrameRate) {
+    this.idleFrameRate = idleFrameRate;
+    if (this.idle) {
+      this.applet.frameRate(idleFrameRate);
+    }
+    return this;
+  }
+
+  /**
+   * Sets how long the UI must be inactive before the frame rate is lowered
+   *
+   * @param idleDelayMillis Delay in milliseconds
+   * @return this
+   */
+  public UI setIdleDelay(long idleDelayMillis) {
+    this.idleDelayMillis = idleDelayMillis;
+    return this;
+  }
+
+  /**
+   * Whether the UI is currently running at the idle frame rate
+   *
+   * @return true if the frame rate has been throttled
+   */
+  public boolean isIdle() {
+    return this.idle;
+  }
+
+  /**
+   * Sets whether 2d contexts briefly highlight the regions of their buffers
+   * that were redrawn. Useful for spotting components that redraw more often
+   * or over a larger area than they ought to.
+   *
+   * @param damageOverlay Whether to flash damaged regions
+   * @return this
+   */
+  public UI setDamageOverlay(boolean damageOverlay) {
+    this.damageOverlay = damageOverlay;
+    return this;
+  }
+
+  /**
+   * Whether damaged regions of 2d contexts are being highlighted
+   *
+   * @return True if the damage overlay is enabled
+   */
+  public boolean isDamageOverlay() {
+    return this.damageOverlay;
+  }
+
+  /**
+   * Sets whether runs of adjacent top-level 2d contexts are flattened into a
+   * cached composite. The composite only re-blends the regions of layers that
+   * were redrawn, moved or shown/hidden, so static layers cost a single blit
+   * per run rather than one per layer. Runs are broken by 3d contexts, which
+   * keeps z-ordering intact. Off by default.
+   *
+   * @param layerCompositing Whether to composite 2d layers
+   * @return this
+   */
+  public UI setLayerCompositing(boolean layerCompositing) {
+    this.layerCompositing = layerCompositing;
+    return this;
+  }
+
+  /**
+   * Whether runs of adjacent top-level 2d contexts are being composited
+   *
+   * @return True if layer compositing is enabled
+   */
+  public boolean isLayerCompositing() {
+    return this.layerCompositing;
+  }
+
+  private void setIdle(boolean idle) {
+    if (this.idle != idle) {
+      this.idle = idle;
+      this.applet.frameRate(idle ? this.idleFrameRate : this.activeFrameRate);
+    }
+  }
+
+  private void updateIdleThrottling(long nowMillis, boolean active) {
+    if (this.inputReceived) {
+      this.inputReceived = false;
+      active = true;
+    }
+    if (this.lx != null) {
+      int uiFrameSequence = this.lx.getUIFrameSequence();
+      if (uiFrameSequence != this.lastUIFrameSequence) {
+        this.lastUIFrameSequence = uiFrameSequence;
+        active = true;
+      }
+      if (!this.lx.engine.isThreaded()) {
+        // The engine runs on this thread, don't slow it down
+        active = true;
+      }
+    }
+    if (active) {
+      this.lastActiveMillis = nowMillis;
+      setIdle(false);
+    } else if (nowMillis - this.lastActiveMillis >= this.idleDelayMillis) {
+      setIdle(true);
+    }
+  }
+
   /**
    * Get width of the UI
    *
@@ -816,13 +1077,9 @@ public class UI implements LXEngine.Dispatch {
   }
 
   void redraw(UI2dComponent object) {
-    // NOTE(mcslee): determined empirically that it's worth putting this check here
-    // to avoid contention on this synchronized list between the UI and engine threads.
-    // adding the same container to be redrawn loads of times slows down. keeping the
-    // redraw list short is better.
-    if (!this.threadSafeRedrawList.contains(object)) {
-      this.threadSafeRedrawList.add(object);
-    }
+    // Objects that are already queued are skipped, this is wait-free and
+    // safe from both the UI and engine threads
+    this.redrawQueue.add(object);
   }
 
   public void resize(int width, int height) {
@@ -865,23 +1122,35 @@ public class UI implements LXEngine.Dispatch {
     this.lastMillis = nowMillis;
 
     // Run loop tasks through the UI tree
+    long loopStart = System.nanoTime();
     this.root.loop(deltaMs);
-
-    // Iterate through all objects that need redraw state marked
-    this.uiThreadRedrawList.clear();
-    synchronized (this.threadSafeRedrawList) {
-      this.uiThreadRedrawList.addAll(this.threadSafeRedrawList);
-      this.threadSafeRedrawList.clear();
-    }
-    for (UI2dComponent object : this.uiThreadRedrawList) {
-      object._redraw();
+    long redrawStart = System.nanoTime();
+    this.profiler.loop.record(redrawStart - loopStart);
+
+    // Iterate through all objects that need redraw state marked. An object
+    // that is redrawn again while being marked is polled again.
+    boolean active = false;
+    UI2dComponent object;
+    while ((object = this.redrawQueue.poll()) != null) {
+      // Redraws culled by a scrolled context don't count as activity
+      active |= object._redraw();
+      this.redrawQueue.done(object);
     }
+    this.profiler.redraw.record(System.nanoTime() - redrawStart);
 
     // Draw from the root
     if (this.hasBackground) {
       this.applet.background(this.backgroundColor);
     }
+    this.root.draw2dNanos = this.root.draw3dNanos = 0;
+    this.root.rendered3d = false;
     this.root.draw(this, this.applet.g);
+    this.profiler.draw2d.record(this.root.draw2dNanos);
+    this.profiler.draw3d.record(this.root.draw3dNanos);
+
+    if (this.idleThrottling) {
+      updateIdleThrottling(nowMillis, active || this.root.rendered3d);
+    }
 
     endDraw();
 
@@ -914,6 +1183,10 @@ public class UI implements LXEngine.Dispatch {
       engineThreadInputEvents.addAll(threadSafeInputEventQueue);
       threadSafeInputEventQueue.clear();
     }
+    if (engineThreadInputEvents.isEmpty()) {
+      return;
+    }
+    long dispatchStart = System.nanoTime();
     for (Event event : engineThreadInputEvents) {
       if (event instanceof KeyEvent) {
         _keyEvent((KeyEvent) event);
@@ -921,11 +1194,13 @@ public class UI implements LXEngine.Dispatch {
         _mouseEvent((MouseEvent) event);
       }
     }
+    this.profiler.inputDispatch.record(System.nanoTime() - dispatchStart);
   }
 
   public void mouseEvent(MouseEvent mouseEvent) {
     // NOTE: this method is invoked from the Processing thread! The LX engine
     // may be running on a separate thread.
+    this.inputReceived = true;
     if (isThreaded()) {
       // NOTE: it's okay that no lock is held here, if threading mode changes
       // right here, the event queue will still be picked up by next iteration
@@ -935,7 +1210,9 @@ public class UI implements LXEngine.Dispatch {
       // NOTE: also okay to be lock-free here, if threading mode was off then
       // there is no other thread that would have made a call to start the
       // threading engine
+      long dispatchStart = System.nanoTime();
       _mouseEvent(mouseEvent);
+      this.profiler.inputDispatch.record(System.nanoTime() - dispatchStart);
     }
   }
 
@@ -982,13 +1259,16 @@ public class UI implements LXEngine.Dispatch {
 
     // Default handler for key events on the UI thread
     _uiThreadDefaultKeyEvent(keyEvent);
+    this.inputReceived = true;
 
     // NOTE: this method is invoked from the Processing thread! The LX engine
     // may be running on a separate thread.
     if (isThreaded()) {
       this.threadSafeInputEventQueue.add(keyEvent);
     } else {
+      long dispatchStart = System.nanoTime();
       _keyEvent(keyEvent);
+      this.profiler.inputDispatch.record(System.nanoTime() - dispatchStart);
     }
   }
 
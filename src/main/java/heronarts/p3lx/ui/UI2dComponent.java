@@ -100,6 +100,11 @@ public abstract class UI2dComponent extends UIObject {
 
   boolean childNeedsRedraw = true;
 
+  /**
+   * Links this component into the UI's redraw queue
+   */
+  final UIRedrawQueue.Node redrawNode = new UIRedrawQueue.Node(this);
+
   protected UI2dComponent() {
     this(0, 0, 0, 0);
   }
@@ -1002,17 +1007,36 @@ public abstract class UI2dComponent extends UIObject {
     }
   }
 
-  final void _redraw() {
+  /**
+   * Marks this object for redraw, unless it is outside the visible area of
+   * one of its containers. Such a redraw would never reach the screen, and
+   * the redraw that brings the object back into view covers it.
+   *
+   * @return Whether the object was marked
+   */
+  final boolean _redraw() {
+    UI2dComponent child = this;
+    UIObject p = this.parent;
+    while ((p != null) && (p instanceof UI2dComponent)) {
+      UI2dComponent p2d = (UI2dComponent) p;
+      if (!p2d.isChildInView(child)) {
+        return false;
+      }
+      child = p2d;
+      p = p2d.parent;
+    }
+
     // Mark object and children as needing redraw
     _redrawChildren();
 
     // Mark parent containers as needing a child redrawn
-    UIObject p = this.parent;
+    p = this.parent;
     while ((p != null) && (p instanceof UI2dComponent)) {
       UI2dComponent p2d = (UI2dComponent) p;
       p2d.childNeedsRedraw = true;
       p = p2d.parent;
     }
+    return true;
   }
 
   /**
@@ -1022,11 +1046,26 @@ public abstract class UI2dComponent extends UIObject {
   private final void _redrawChildren() {
     this.needsRedraw = true;
     this.childNeedsRedraw = (this.mutableChildren.size() > 0);
-    for (UIObject child : this.mutableChildren) {
-      ((UI2dComponent)child)._redrawChildren();
+    for (UIObject childObject : this.mutableChildren) {
+      UI2dComponent child = (UI2dComponent) childObject;
+      if (isChildInView(child)) {
+        child._redrawChildren();
+      }
     }
   }
 
+  /**
+   * Whether a child falls within the visible area of this component. Children
+   * that do not are neither marked for redraw nor drawn. They are picked up by
+   * the redraw that happens when scrolling or resizing brings them into view.
+   *
+   * @param child Child component
+   * @return Whether the child may be visible
+   */
+  boolean isChildInView(UI2dComponent child) {
+    return true;
+  }
+
   /**
    * Draws this object to the graphics context.
    *
@@ -1054,7 +1093,7 @@ public abstract class UI2dComponent extends UIObject {
       pg.translate(sx, sy);
       for (UIObject childObject : this.mutableChildren) {
         UI2dComponent child = (UI2dComponent) childObject;
-        if (child.needsRedraw || child.childNeedsRedraw) {
+        if ((child.needsRedraw || child.childNeedsRedraw) && isChildInView(child)) {
           float cx = child.x;
           float cy = child.y;
           pg.translate(cx, cy);
@@ -24,8 +24,15 @@
 
 package heronarts.p3lx.ui;
 
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.image.WritableRaster;
+
+import processing.awt.PGraphicsJava2D;
 import processing.core.PConstants;
 import processing.core.PGraphics;
+import processing.opengl.PGraphicsOpenGL;
+import processing.opengl.Texture;
 
 /**
  * A UIContext is a container that owns a graphics buffer. This buffer is
@@ -34,13 +41,118 @@ import processing.core.PGraphics;
  */
 public class UI2dContext extends UI2dContainer {
 
+  /**
+   * Maximum number of separate damaged rectangles tracked per frame. Past
+   * this, damage collapses into a single bounding rectangle.
+   */
+  private static final int MAX_DAMAGE_RECTS = 16;
+
+  /**
+   * How long damaged rectangles stay visible in the debug overlay
+   */
+  private static final long DAMAGE_OVERLAY_MILLIS = 250;
+
+  /**
+   * Offscreen renderer that restricts drawing, pixel readback and texture
+   * upload to the damaged regions of the context. Instantiated by Processing
+   * via createGraphics(), so it must be public with a no-arg constructor.
+   */
+  public static class DamageGraphics extends PGraphicsJava2D {
+
+    // Whether the whole buffer is being drawn, otherwise only the damaged
+    // rectangles are
+    private boolean fullDamage = true;
+    private int[] damage = null;
+    private int numDamage = 0;
+    private int[] rowBuffer = new int[0];
+
+    /**
+     * Restricts drawing to the given rectangles, stored as x1, y1, x2, y2
+     * quadruples, until endDraw(). Must be called after beginDraw(). If this
+     * is not called, the whole buffer is drawn.
+     */
+    void setDamage(int[] damage, int numDamage) {
+      this.fullDamage = false;
+      this.damage = damage;
+      this.numDamage = numDamage;
+      Area clip = new Area();
+      for (int i = 0; i < numDamage; ++i) {
+        int r = i << 2;
+        clip.add(new Area(new Rectangle(damage[r], damage[r+1], damage[r+2] - damage[r], damage[r+3] - damage[r+1])));
+      }
+      this.g2.setClip(clip);
+    }
+
+    @Override
+    public void endDraw() {
+      if (!this.fullDamage) {
+        this.g2.setClip(null);
+      }
+      super.endDraw();
+      this.fullDamage = true;
+      this.numDamage = 0;
+    }
+
+    /**
+     * Only copies the damaged rows of the raster into the pixel array, the
+     * rest of which is already up to date from previous frames.
+     */
+    @Override
+    public void loadPixels() {
+      if (this.fullDamage || (this.pixels == null) || (this.pixels.length != this.pixelWidth * this.pixelHeight)) {
+        super.loadPixels();
+        return;
+      }
+      WritableRaster raster = getRaster();
+      boolean opaque = raster.getNumBands() == 3;
+      for (int i = 0; i < this.numDamage; ++i) {
+        int r = i << 2;
+        int x1 = Math.max(0, this.damage[r] * this.pixelDensity);
+        int y1 = Math.max(0, this.damage[r+1] * this.pixelDensity);
+        int x2 = Math.min(this.pixelWidth, this.damage[r+2] * this.pixelDensity);
+        int y2 = Math.min(this.pixelHeight, this.damage[r+3] * this.pixelDensity);
+        int w = x2 - x1;
+        if (w <= 0) {
+          continue;
+        }
+        if (this.rowBuffer.length < w) {
+          this.rowBuffer = new int[w];
+        }
+        for (int y = y1; y < y2; ++y) {
+          raster.getDataElements(x1, y, w, 1, this.rowBuffer);
+          int offset = y * this.pixelWidth + x1;
+          System.arraycopy(this.rowBuffer, 0, this.pixels, offset, w);
+          if (opaque) {
+            for (int x = offset; x < offset + w; ++x) {
+              this.pixels[x] |= 0xff000000;
+            }
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Graphics context for this container.
    */
-  private final PGraphics pg;
+  private final DamageGraphics pg;
 
   private boolean needsResize = false;
 
+  // Whether the whole buffer was redrawn this frame, otherwise only the
+  // damaged rectangles were, as x1, y1, x2, y2 quadruples
+  boolean fullDamage = false;
+  final int[] damage = new int[MAX_DAMAGE_RECTS * 4];
+  int numDamage = 0;
+
+  // Damaged rectangles shown by the debug overlay, and when they were drawn
+  private final int[] overlayDamage = new int[MAX_DAMAGE_RECTS * 4];
+  private int numOverlayDamage = 0;
+  private long overlayMillis = 0;
+
+  // Scratch space for packing damaged pixels into texture uploads
+  private int[] uploadBuffer = new int[0];
+
   /**
    * Constructs a new UI2dContext
    *
@@ -52,7 +164,7 @@ public class UI2dContext extends UI2dContainer {
    */
   public UI2dContext(UI ui, float x, float y, float w, float h) {
     super(x, y, w, h);
-    this.pg = ui.applet.createGraphics((int) w, (int) h, PConstants.JAVA2D);
+    this.pg = (DamageGraphics) ui.applet.createGraphics((int) w, (int) h, DamageGraphics.class.getName());
     this.pg.smooth();
   }
 
@@ -68,22 +180,227 @@ public class UI2dContext extends UI2dContainer {
     if (!isVisible()) {
       return;
     }
-    if (this.needsRedraw || this.childNeedsRedraw) {
-      if (this.needsResize) {
-        this.pg.setSize((int) this.width, (int) this.height);
-        this.needsResize = false;
+    render(ui, pg);
+    pg.image(this.pg, 0, 0);
+    if ((this.numOverlayDamage > 0) && !(pg instanceof DamageGraphics)) {
+      // Nested contexts are covered by the damage of their parent
+      drawDamageOverlay(ui, pg);
+    }
+  }
+
+  /**
+   * Brings the offscreen buffer up to date, without drawing it anywhere. When
+   * this returns true, either fullDamage is set or the damaged rectangles are
+   * left in damage.
+   *
+   * @param ui UI
+   * @param dst Graphics context the buffer will be drawn into
+   * @return Whether anything was redrawn
+   */
+  boolean render(UI ui, PGraphics dst) {
+    if (!this.needsRedraw && !this.childNeedsRedraw) {
+      return false;
+    }
+    // Work out which parts of the buffer are changing, unless the whole
+    // thing is being redrawn anyways
+    this.numDamage = 0;
+    this.fullDamage = this.needsRedraw || this.needsResize;
+    if (this.needsResize) {
+      this.pg.setSize((int) this.width, (int) this.height);
+      this.needsResize = false;
+    } else if (!this.fullDamage) {
+      collectDamage(this, 0, 0);
+      if (this.numDamage == 0) {
+        // Only hidden or culled children asked to be redrawn
+        clearChildNeedsRedraw(this);
+        return false;
       }
-      try {
-        this.pg.beginDraw();
-        super.draw(ui, this.pg);
-        this.pg.endDraw();
-      } catch (Exception x) {
-        System.out.println(getClass());
-        x.printStackTrace();
-        System.exit(1);
+    }
+    try {
+      this.pg.beginDraw();
+      if (!this.fullDamage) {
+        this.pg.setDamage(this.damage, this.numDamage);
       }
+      super.draw(ui, this.pg);
+      this.pg.endDraw();
+    } catch (Exception x) {
+      System.out.println(getClass());
+      x.printStackTrace();
+      System.exit(1);
+    }
+    if (!this.fullDamage && (dst instanceof PGraphicsOpenGL)) {
+      uploadDamage((PGraphicsOpenGL) dst);
+    }
+    if (ui.isDamageOverlay()) {
+      if (this.fullDamage) {
+        this.overlayDamage[0] = 0;
+        this.overlayDamage[1] = 0;
+        this.overlayDamage[2] = (int) this.width;
+        this.overlayDamage[3] = (int) this.height;
+        this.numOverlayDamage = 1;
+      } else {
+        System.arraycopy(this.damage, 0, this.overlayDamage, 0, this.numDamage * 4);
+        this.numOverlayDamage = this.numDamage;
+      }
+      this.overlayMillis = System.currentTimeMillis();
+    }
+    return true;
+  }
+
+  /**
+   * Children scrolled or positioned entirely outside the buffer can never be
+   * seen, so they are skipped until a redraw brings them back into view.
+   */
+  @Override
+  boolean isChildInView(UI2dComponent child) {
+    float cx = child.x + this.scrollX;
+    float cy = child.y + this.scrollY;
+    return
+      (cx <= this.width) && (cx + child.width >= 0) &&
+      (cy <= this.height) && (cy + child.height >= 0);
+  }
+
+  /**
+   * Walks the parts of the tree that need redrawing and records the bounds of
+   * the topmost component in each branch that will be redrawn in full.
+   */
+  private void collectDamage(UI2dComponent component, float ox, float oy) {
+    ox += component.scrollX;
+    oy += component.scrollY;
+    for (UIObject childObject : component.mutableChildren) {
+      UI2dComponent child = (UI2dComponent) childObject;
+      if (!child.isVisible() || !component.isChildInView(child)) {
+        continue;
+      }
+      float cx = ox + child.x;
+      float cy = oy + child.y;
+      if (child.needsRedraw || ((child instanceof UI2dContext) && child.childNeedsRedraw)) {
+        // Nested contexts blit their entire buffer when anything in them changes
+        addDamage(cx, cy, child.width, child.height);
+      } else if (child.childNeedsRedraw) {
+        collectDamage(child, cx, cy);
+      }
+    }
+  }
+
+  /**
+   * Clears the child redraw flags on a branch that had nothing visible to
+   * redraw, as drawing it would have. Components that asked to be redrawn
+   * while hidden or culled keep their own flag, like they do when drawn.
+   */
+  private static void clearChildNeedsRedraw(UI2dComponent component) {
+    component.childNeedsRedraw = false;
+    for (UIObject childObject : component.mutableChildren) {
+      UI2dComponent child = (UI2dComponent) childObject;
+      if (child.childNeedsRedraw) {
+        clearChildNeedsRedraw(child);
+      }
+    }
+  }
+
+  private void addDamage(float x, float y, float w, float h) {
+    // Pad by a pixel to leave room for antialiased edges
+    int x1 = Math.max(0, (int) Math.floor(x) - 1);
+    int y1 = Math.max(0, (int) Math.floor(y) - 1);
+    int x2 = Math.min((int) Math.ceil(this.width), (int) Math.ceil(x + w) + 1);
+    int y2 = Math.min((int) Math.ceil(this.height), (int) Math.ceil(y + h) + 1);
+    if ((x2 <= x1) || (y2 <= y1)) {
+      return;
+    }
+
+    // Coalesce with any rectangles this one overlaps, which may in turn make
+    // the union overlap rectangles that were previously disjoint
+    boolean merged = true;
+    while (merged) {
+      merged = false;
+      for (int i = 0; i < this.numDamage; ++i) {
+        int r = i << 2;
+        if (x1 <= this.damage[r+2] && x2 >= this.damage[r] && y1 <= this.damage[r+3] && y2 >= this.damage[r+1]) {
+          x1 = Math.min(x1, this.damage[r]);
+          y1 = Math.min(y1, this.damage[r+1]);
+          x2 = Math.max(x2, this.damage[r+2]);
+          y2 = Math.max(y2, this.damage[r+3]);
+          removeDamage(i);
+          merged = true;
+          break;
+        }
+      }
+    }
+
+    if (this.numDamage == MAX_DAMAGE_RECTS) {
+      // Too fragmented, collapse to the bounding box of everything
+      for (int i = 0; i < this.numDamage; ++i) {
+        int r = i << 2;
+        x1 = Math.min(x1, this.damage[r]);
+        y1 = Math.min(y1, this.damage[r+1]);
+        x2 = Math.max(x2, this.damage[r+2]);
+        y2 = Math.max(y2, this.damage[r+3]);
+      }
+      this.numDamage = 0;
+    }
+    int r = this.numDamage++ << 2;
+    this.damage[r] = x1;
+    this.damage[r+1] = y1;
+    this.damage[r+2] = x2;
+    this.damage[r+3] = y2;
+  }
+
+  private void removeDamage(int index) {
+    --this.numDamage;
+    System.arraycopy(this.damage, (this.numDamage) << 2, this.damage, index << 2, 4);
+  }
+
+  /**
+   * Pushes only the damaged rectangles to the texture backing this buffer.
+   * Processing would otherwise re-upload the whole buffer, and its own
+   * partial upload path does not handle sub-rectangles of the pixel array.
+   */
+  private void uploadDamage(PGraphicsOpenGL pgl) {
+    this.pg.setModified(false);
+    Texture texture = pgl.getTexture(this.pg);
+    if (texture == null) {
+      this.pg.setModified();
+      return;
+    }
+    int density = this.pg.pixelDensity;
+    int pixelWidth = this.pg.pixelWidth;
+    int pixelHeight = this.pg.pixelHeight;
+    int[] pixels = this.pg.pixels;
+    for (int i = 0; i < this.numDamage; ++i) {
+      int r = i << 2;
+      int x1 = Math.max(0, this.damage[r] * density);
+      int y1 = Math.max(0, this.damage[r+1] * density);
+      int x2 = Math.min(pixelWidth, this.damage[r+2] * density);
+      int y2 = Math.min(pixelHeight, this.damage[r+3] * density);
+      int w = x2 - x1;
+      int h = y2 - y1;
+      if ((w <= 0) || (h <= 0)) {
+        continue;
+      }
+      if (this.uploadBuffer.length < w * h) {
+        this.uploadBuffer = new int[w * h];
+      }
+      for (int y = 0; y < h; ++y) {
+        System.arraycopy(pixels, (y1 + y) * pixelWidth + x1, this.uploadBuffer, y * w, w);
+      }
+      texture.set(this.uploadBuffer, x1, y1, w, h, PConstants.ARGB);
+    }
+  }
+
+  void drawDamageOverlay(UI ui, PGraphics pg) {
+    long elapsed = System.currentTimeMillis() - this.overlayMillis;
+    if (!ui.isDamageOverlay() || (elapsed >= DAMAGE_OVERLAY_MILLIS)) {
+      this.numOverlayDamage = 0;
+      return;
+    }
+    int alpha = (int) (255 * (DAMAGE_OVERLAY_MILLIS - elapsed) / DAMAGE_OVERLAY_MILLIS);
+    pg.strokeWeight(1);
+    pg.stroke(0xff0000 | (alpha << 24));
+    pg.fill(0xff0000 | ((alpha / 4) << 24));
+    for (int i = 0; i < this.numOverlayDamage; ++i) {
+      int r = i << 2;
+      pg.rect(this.overlayDamage[r], this.overlayDamage[r+1], this.overlayDamage[r+2] - this.overlayDamage[r] - 1, this.overlayDamage[r+3] - this.overlayDamage[r+1] - 1);
     }
-    pg.image(this.pg, 0, 0);
   }
 
   @Override
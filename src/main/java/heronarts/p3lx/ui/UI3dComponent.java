@@ -29,6 +29,9 @@ package heronarts.p3lx.ui;
  */
 public abstract class UI3dComponent extends UIObject {
 
+  // Visibility state as of the last time the context rendered this component
+  private boolean renderedVisible = false;
+
   @Override
   public boolean contains(float x, float y) {
     return false;
@@ -65,4 +68,59 @@ public abstract class UI3dComponent extends UIObject {
     this.mutableChildren.remove(child);
     return this;
   }
+
+  /**
+   * Releases any GPU resources held by this component. This is not invoked
+   * when the component is removed from its parent or context, only
+   * explicitly on the UI thread, or by UI3dContext.dispose(). Subclasses
+   * holding GPU resources should override this to release them, re-acquiring
+   * them on demand if the component is drawn again. The default disposes of
+   * all children.
+   */
+  public void dispose() {
+    for (UIObject child : this.mutableChildren) {
+      if (child instanceof UI3dComponent) {
+        ((UI3dComponent) child).dispose();
+      }
+    }
+  }
+
+  /**
+   * Subclasses may override to indicate whether their output could differ from
+   * the last time they were drawn. This is consulted by a UI3dContext that
+   * renders on demand. The default conservatively always returns true.
+   *
+   * @return Whether this component needs to be drawn again
+   */
+  protected boolean needsRender() {
+    return true;
+  }
+
+  boolean needsRenderTree() {
+    boolean visible = isVisible();
+    if (visible != this.renderedVisible) {
+      return true;
+    }
+    if (!visible) {
+      return false;
+    }
+    if (needsRender()) {
+      return true;
+    }
+    for (UIObject child : this.mutableChildren) {
+      if ((child instanceof UI3dComponent) && ((UI3dComponent) child).needsRenderTree()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  void didRenderTree() {
+    this.renderedVisible = isVisible();
+    for (UIObject child : this.mutableChildren) {
+      if (child instanceof UI3dComponent) {
+        ((UI3dComponent) child).didRenderTree();
+      }
+    }
+  }
 }
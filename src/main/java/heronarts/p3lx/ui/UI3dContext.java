@@ -25,6 +25,7 @@
 package heronarts.p3lx.ui;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
@@ -367,6 +368,19 @@ public class UI3dContext extends UIObject implements LXSerializable, UITabFocus
   private int backgroundColor = 0;
   private boolean hasBackground = false;
 
+  private boolean renderOnDemand = false;
+  private boolean renderRequested = true;
+
+  /**
+   * Whether the scene was rendered, rather than re-used, on the last draw
+   */
+  boolean renderedLastDraw = false;
+
+  // Camera and view state that the graphics buffer was last rendered with
+  private static final int RENDER_STATE_SIZE = 15;
+  private final float[] renderState = new float[RENDER_STATE_SIZE];
+  private final float[] renderedState = new float[RENDER_STATE_SIZE];
+
   /**
    * Creates a UI3dContext which draws into the parent Processing
    * graphics context, bypassing any compositing of UI layers. This
@@ -515,6 +529,7 @@ public class UI3dContext extends UIObject implements LXSerializable, UITabFocus
     } else {
       this.pg.dispose();
       this.pg = this.ui.applet.createGraphics((int) width, (int) height, PConstants.P3D);
+      this.renderRequested = true;
       onResize();
     }
     return this;
@@ -529,6 +544,7 @@ public class UI3dContext extends UIObject implements LXSerializable, UITabFocus
   public UI3dContext setBackgroundColor(int backgroundColor) {
     this.backgroundColor = backgroundColor;
     this.hasBackground = true;
+    this.renderRequested = true;
     return this;
   }
 
@@ -540,6 +556,34 @@ public class UI3dContext extends UIObject implements LXSerializable, UITabFocus
    */
   public UI3dContext setBackground(boolean hasBackground) {
     this.hasBackground = hasBackground;
+    this.renderRequested = true;
+    return this;
+  }
+
+  /**
+   * Sets whether this context only re-renders its scene when something has
+   * changed. When enabled, the previously rendered image is re-used if the
+   * camera has not moved and none of the components report that they need
+   * to be rendered. This has no effect on a top-level context, which draws
+   * directly into the main graphics buffer.
+   *
+   * @param renderOnDemand Whether to render on demand
+   * @return this
+   */
+  public UI3dContext setRenderOnDemand(boolean renderOnDemand) {
+    this.renderOnDemand = renderOnDemand;
+    this.renderRequested = true;
+    return this;
+  }
+
+  /**
+   * Forces the scene to be rendered on the next frame when rendering on demand,
+   * for components whose changes are not otherwise detectable.
+   *
+   * @return this
+   */
+  public UI3dContext requestRender() {
+    this.renderRequested = true;
     return this;
   }
 
@@ -551,6 +595,20 @@ public class UI3dContext extends UIObject implements LXSerializable, UITabFocus
 
   }
 
+  /**
+   * Disposes of the components in this context, releasing any GPU resources
+   * they hold. This is not done when the context is removed from the UI, so
+   * that it may be added back without rebuilding them. Call this when the
+   * context will no longer be used.
+   */
+  public void dispose() {
+    for (UIObject child : this.mutableChildren) {
+      if (child instanceof UI3dComponent) {
+        ((UI3dComponent) child).dispose();
+      }
+    }
+  }
+
   /**
    * Adds a component to the layer
    *
@@ -559,6 +617,7 @@ public class UI3dContext extends UIObject implements LXSerializable, UITabFocus
    */
   public final UI3dContext addComponent(UI3dComponent component) {
     this.mutableChildren.add(component);
+    this.renderRequested = true;
     return this;
   }
 
@@ -570,6 +629,7 @@ public class UI3dContext extends UIObject implements LXSerializable, UITabFocus
    */
   public final UI3dContext removeComponent(UI3dComponent component) {
     this.mutableChildren.remove(component);
+    this.renderRequested = true;
     return this;
   }
 
@@ -834,10 +894,21 @@ public class UI3dContext extends UIObject implements LXSerializable, UITabFocus
 
   @Override
   public final void draw(UI ui, PGraphics dstPg) {
+    this.renderedLastDraw = false;
     if (!isVisible()) {
       return;
     }
 
+    // Set the camera
+    computeCamera(false);
+
+    if ((this.pg != null) && this.renderOnDemand && !needsRender(ui)) {
+      // Nothing has changed, re-use the last rendered image
+      dstPg.image(this.pg, this.x, this.y);
+      return;
+    }
+
+    this.renderedLastDraw = true;
     PGraphics pg = dstPg;
     if (this.pg != null) {
       pg = this.pg;
@@ -849,8 +920,6 @@ public class UI3dContext extends UIObject implements LXSerializable, UITabFocus
       }
     }
 
-    // Set the camera
-    computeCamera(false);
     pg.camera(
       this.eyeDamped.x, this.eyeDamped.y, this.eyeDamped.z,
       this.centerDamped.x, this.centerDamped.y, this.centerDamped.z,
@@ -889,6 +958,9 @@ public class UI3dContext extends UIObject implements LXSerializable, UITabFocus
       child.draw(ui, pg);
     }
     endDraw(ui, pg);
+    if (this.renderOnDemand) {
+      didRender();
+    }
 
     // Reset the depth test, camera and perspective
     pg.hint(PConstants.DISABLE_DEPTH_TEST);
@@ -905,6 +977,50 @@ public class UI3dContext extends UIObject implements LXSerializable, UITabFocus
     }
   }
 
+  private void captureRenderState(UI ui, float[] state) {
+    state[0] = this.eyeDamped.x;
+    state[1] = this.eyeDamped.y;
+    state[2] = this.eyeDamped.z;
+    state[3] = this.centerDamped.x;
+    state[4] = this.centerDamped.y;
+    state[5] = this.centerDamped.z;
+    state[6] = this.radiusDamped.getValuef();
+    state[7] = this.projection.getEnum().ordinal();
+    state[8] = this.perspective.getValuef();
+    state[9] = this.depth.getValuef();
+    state[10] = ui.coordinateSystem.ordinal();
+    state[11] = this.showCenterPoint.isOn() ? 1 : 0;
+    state[12] = hasFocus() ? 1 : 0;
+    state[13] = this.pg.width;
+    state[14] = this.pg.height;
+  }
+
+  private boolean needsRender(UI ui) {
+    if (this.renderRequested) {
+      return true;
+    }
+    captureRenderState(ui, this.renderState);
+    if (!Arrays.equals(this.renderState, this.renderedState)) {
+      return true;
+    }
+    for (UIObject child : this.mutableChildren) {
+      if ((child instanceof UI3dComponent) && ((UI3dComponent) child).needsRenderTree()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void didRender() {
+    this.renderRequested = false;
+    captureRenderState(this.ui, this.renderedState);
+    for (UIObject child : this.mutableChildren) {
+      if (child instanceof UI3dComponent) {
+        ((UI3dComponent) child).didRenderTree();
+      }
+    }
+  }
+
   private void drawCenterDot(PGraphics pg) {
     pg.stroke(LXColor.RED);
     pg.strokeWeight(10);
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui;
+
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.util.ArrayList;
+import java.util.List;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/**
+ * Flattens a run of adjacent top-level 2d contexts into a single
+ * screen-sized surface. The surface persists across frames, and only the
+ * regions touched by layers that redrew, moved or changed visibility are
+ * recomposited. Drawing the run then costs one image blit per frame instead
+ * of one per layer.
+ */
+class UIComposite {
+
+  private final UI ui;
+
+  private PGraphics pg = null;
+
+  private final List<UI2dContext> layers = new ArrayList<UI2dContext>();
+
+  // Bounds of each layer when last composited, as x, y, w, h quadruples
+  private float[] bounds = new float[0];
+  private boolean[] visible = new boolean[0];
+
+  // Bounding box of the region to recomposite this frame
+  private float damageX1, damageY1, damageX2, damageY2;
+
+  UIComposite(UI ui) {
+    this.ui = ui;
+  }
+
+  /**
+   * Brings the composite up to date with the given run of layers and draws
+   * it into the destination graphics context.
+   *
+   * @param dst Graphics context to draw into
+   * @param run Layers in the run, in z-order
+   */
+  void draw(PGraphics dst, List<UI2dContext> run) {
+    int width = this.ui.applet.width;
+    int height = this.ui.applet.height;
+
+    boolean full = false;
+    if ((this.pg == null) || (this.pg.width != width) || (this.pg.height != height)) {
+      // Stay on the GPU when the main surface does
+      this.pg = this.ui.applet.createGraphics(width, height, dst.isGL() ? PConstants.P2D : PConstants.JAVA2D);
+      full = true;
+    }
+    if (!full && !this.layers.equals(run)) {
+      full = true;
+    }
+    if (this.bounds.length < run.size() * 4) {
+      this.bounds = new float[run.size() * 4];
+      this.visible = new boolean[run.size()];
+      full = true;
+    }
+    if (full) {
+      this.layers.clear();
+      this.layers.addAll(run);
+    }
+
+    this.damageX1 = this.damageY1 = Float.MAX_VALUE;
+    this.damageX2 = this.damageY2 = -Float.MAX_VALUE;
+    for (int i = 0; i < run.size(); ++i) {
+      UI2dContext layer = run.get(i);
+      int b = i << 2;
+      boolean isVisible = layer.isVisible();
+      float x = layer.getX();
+      float y = layer.getY();
+      float w = layer.getWidth();
+      float h = layer.getHeight();
+      if (!full &&
+          (isVisible != this.visible[i] ||
+           x != this.bounds[b] || y != this.bounds[b+1] ||
+           w != this.bounds[b+2] || h != this.bounds[b+3])) {
+        // Uncover wherever the layer was, and cover wherever it is now
+        if (this.visible[i]) {
+          addDamage(this.bounds[b], this.bounds[b+1], this.bounds[b+2], this.bounds[b+3]);
+        }
+        if (isVisible) {
+          addDamage(x, y, w, h);
+        }
+      }
+      this.visible[i] = isVisible;
+      this.bounds[b] = x;
+      this.bounds[b+1] = y;
+      this.bounds[b+2] = w;
+      this.bounds[b+3] = h;
+
+      if (isVisible && layer.render(this.ui, this.pg)) {
+        if (layer.fullDamage) {
+          addDamage(x, y, w, h);
+        } else {
+          for (int d = 0; d < layer.numDamage; ++d) {
+            int r = d << 2;
+            addDamage(x + layer.damage[r], y + layer.damage[r+1], layer.damage[r+2] - layer.damage[r], layer.damage[r+3] - layer.damage[r+1]);
+          }
+        }
+      }
+    }
+    if (full) {
+      this.damageX1 = this.damageY1 = 0;
+      this.damageX2 = width;
+      this.damageY2 = height;
+    }
+
+    if (this.damageX2 > this.damageX1 && this.damageY2 > this.damageY1) {
+      composite(run);
+    }
+    dst.image(this.pg, 0, 0);
+
+    if (this.ui.isDamageOverlay()) {
+      for (UI2dContext layer : run) {
+        if (layer.isVisible()) {
+          dst.translate(layer.getX(), layer.getY());
+          layer.drawDamageOverlay(this.ui, dst);
+          dst.translate(-layer.getX(), -layer.getY());
+        }
+      }
+    }
+  }
+
+  private void addDamage(float x, float y, float w, float h) {
+    this.damageX1 = Math.min(this.damageX1, x);
+    this.damageY1 = Math.min(this.damageY1, y);
+    this.damageX2 = Math.max(this.damageX2, x + w);
+    this.damageY2 = Math.max(this.damageY2, y + h);
+  }
+
+  /**
+   * Clears the damaged region of the composite and redraws every layer that
+   * overlaps it, bottom to top.
+   */
+  private void composite(List<UI2dContext> run) {
+    float x1 = Math.max(0, (float) Math.floor(this.damageX1));
+    float y1 = Math.max(0, (float) Math.floor(this.damageY1));
+    float x2 = Math.min(this.pg.width, (float) Math.ceil(this.damageX2));
+    float y2 = Math.min(this.pg.height, (float) Math.ceil(this.damageY2));
+    this.pg.beginDraw();
+    this.pg.clip(x1, y1, x2 - x1, y2 - y1);
+    if (this.pg.isGL()) {
+      // The scissor test set by clip() applies to clearing
+      this.pg.clear();
+    } else {
+      // Java2D clear() fills the whole pixel array regardless of the clip,
+      // so only the damaged region is cleared through the graphics
+      Graphics2D g2 = (Graphics2D) this.pg.getNative();
+      Composite composite = g2.getComposite();
+      g2.setComposite(AlphaComposite.Clear);
+      g2.fillRect((int) x1, (int) y1, (int) (x2 - x1), (int) (y2 - y1));
+      g2.setComposite(composite);
+    }
+    for (UI2dContext layer : run) {
+      if (layer.isVisible()) {
+        float x = layer.getX();
+        float y = layer.getY();
+        if (x < x2 && x + layer.getWidth() > x1 && y < y2 && y + layer.getHeight() > y1) {
+          this.pg.image(layer.getGraphics(), x, y);
+        }
+      }
+    }
+    this.pg.noClip();
+    this.pg.endDraw();
+  }
+}
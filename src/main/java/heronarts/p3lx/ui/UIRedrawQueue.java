@@ -0,0 +1,177 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Queue of components waiting to have their redraw state marked. Any number
+ * of threads may add to it, only the UI thread polls it.
+ *
+ * This is an intrusive multi-producer single-consumer queue, after Dmitry
+ * Vyukov's design. Each component owns a node, and a state on the node keeps
+ * a component from being added more than once. A component that is added
+ * again while the UI thread is marking it is flagged and re-queued when the
+ * marking is done. Adding does not allocate, polling is lock-free.
+ *
+ * Every add performs a successful compare-and-set on the node's state, and
+ * the UI thread reads that state with an atomic update before marking. So
+ * whatever a thread wrote before calling add() is visible to the marking and
+ * drawing that follow, as it was when this was a synchronized list.
+ */
+class UIRedrawQueue {
+
+  static class Node {
+
+    private static final AtomicIntegerFieldUpdater<Node> STATE =
+      AtomicIntegerFieldUpdater.newUpdater(Node.class, "state");
+
+    // Not in the queue
+    private static final int IDLE = 0;
+
+    // Waiting in the queue
+    private static final int QUEUED = 1;
+
+    // Polled, the UI thread is marking it
+    private static final int MARKING = 2;
+
+    // Added again while being marked, needs marking again
+    private static final int REQUEUED = 3;
+
+    final UI2dComponent component;
+
+    private volatile Node next = null;
+
+    private volatile int state = IDLE;
+
+    Node(UI2dComponent component) {
+      this.component = component;
+    }
+  }
+
+  private final Node stub = new Node(null);
+
+  // Producers swap themselves in at the head
+  private final AtomicReference<Node> head = new AtomicReference<Node>(this.stub);
+
+  // Only touched by the consumer
+  private Node tail = this.stub;
+
+  /**
+   * Adds a component to the queue, unless it is already waiting in it. Safe
+   * to call from any thread.
+   *
+   * @param component Component
+   * @return true if the component was added, false if it was already queued
+   */
+  boolean add(UI2dComponent component) {
+    Node node = component.redrawNode;
+    while (true) {
+      int state = node.state;
+      switch (state) {
+      case Node.IDLE:
+        if (Node.STATE.compareAndSet(node, Node.IDLE, Node.QUEUED)) {
+          push(node);
+          return true;
+        }
+        break;
+      case Node.MARKING:
+        if (Node.STATE.compareAndSet(node, Node.MARKING, Node.REQUEUED)) {
+          return true;
+        }
+        break;
+      default:
+        // Already waiting. The state is written anyway, so that this add
+        // happens-before the UI thread takes the component.
+        if (Node.STATE.compareAndSet(node, state, state)) {
+          return false;
+        }
+        break;
+      }
+    }
+  }
+
+  private void push(Node node) {
+    node.next = null;
+    Node prev = this.head.getAndSet(node);
+    // Between the swap and this store the queue is momentarily disconnected,
+    // poll() treats that the same as empty
+    prev.next = node;
+  }
+
+  /**
+   * Removes the oldest component from the queue, to be marked. Adds while it
+   * is being marked flag it to be queued again by done(). Must only be called
+   * from the UI thread.
+   *
+   * @return Component, or null if the queue is empty
+   */
+  UI2dComponent poll() {
+    Node tail = this.tail;
+    Node next = tail.next;
+    if (tail == this.stub) {
+      if (next == null) {
+        return null;
+      }
+      this.tail = tail = next;
+      next = next.next;
+    }
+    if (next != null) {
+      this.tail = next;
+      return take(tail);
+    }
+    if (tail != this.head.get()) {
+      // A producer is part-way through adding
+      return null;
+    }
+    push(this.stub);
+    next = tail.next;
+    if (next != null) {
+      this.tail = next;
+      return take(tail);
+    }
+    return null;
+  }
+
+  private UI2dComponent take(Node node) {
+    Node.STATE.getAndSet(node, Node.MARKING);
+    return node.component;
+  }
+
+  /**
+   * Finishes marking a component returned by poll(). If it was added again
+   * while being marked, it goes back on the queue to be polled again.
+   *
+   * @param component Component
+   */
+  void done(UI2dComponent component) {
+    Node node = component.redrawNode;
+    if (!Node.STATE.compareAndSet(node, Node.MARKING, Node.IDLE)) {
+      Node.STATE.getAndSet(node, Node.QUEUED);
+      push(node);
+    }
+  }
+}
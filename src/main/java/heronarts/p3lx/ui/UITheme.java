@@ -25,6 +25,11 @@
 package heronarts.p3lx.ui;
 
 import heronarts.lx.LX;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 import processing.core.PApplet;
 import processing.core.PFont;
 import processing.core.PImage;
@@ -78,6 +83,43 @@ public class UITheme {
   private int modulationSourceMappingColor = 0x3300ff00;
   private int modulationTargetMappingColor = 0x3300cccc;
 
+
+  /**
+   * A theme asset that is loaded on first use, or ahead of time by preload()
+   */
+  private static class Asset<T> {
+
+    private final String name;
+    private final Supplier<T> loader;
+    private volatile boolean loaded = false;
+    private T value = null;
+
+    private Asset(String name, Supplier<T> loader) {
+      this.name = name;
+      this.loader = loader;
+    }
+
+    private T get() {
+      if (!this.loaded) {
+        synchronized (this) {
+          if (!this.loaded) {
+            long start = System.nanoTime();
+            this.value = this.loader.get();
+            this.loaded = true;
+            LX.initProfiler.log(String.format("P3LX: UI: Theme: %s (%.2fms on %s)",
+              this.name, (System.nanoTime() - start) / 1e6, Thread.currentThread().getName()));
+          }
+        }
+      }
+      return this.value;
+    }
+  }
+
+  private final List<Asset<?>> assets = new ArrayList<Asset<?>>();
+
+  private final Asset<PFont> defaultControlFont;
+  private final Asset<PFont> defaultLabelFont;
+
   public final PImage iconNote;
   public final PImage iconTempo;
   public final PImage iconControl;
@@ -98,31 +140,88 @@ public class UITheme {
 
   UITheme(PApplet applet) {
     // this.controlFont = applet.loadFont("ArialUnicodeMS-10.vlw");
-    this.controlFont = applet.createFont("Inter-SemiBold.ttf", 10);
-    LX.initProfiler.log("P3LX: UI: Theme: controlFont");
+    this.defaultControlFont = addAsset("Inter-SemiBold.ttf", () -> applet.createFont("Inter-SemiBold.ttf", 10));
 
     // this.labelFont = this.deviceFont = this.windowTitleFont = applet.loadFont("Arial-Black-9.vlw");
-    this.labelFont = this.deviceFont = this.windowTitleFont = applet.createFont("Inter-Black.ttf", 10);
-    LX.initProfiler.log("P3LX: UI: Theme: windowTitleFont");
-
-    this.iconNote = applet.loadImage("icon-note.png");
-    this.iconTempo = applet.loadImage("icon-tempo.png");
-    this.iconControl = applet.loadImage("icon-control.png");
-    this.iconTrigger = applet.loadImage("icon-trigger.png");
-    this.iconTriggerSource = applet.loadImage("icon-trigger-source.png");
-    this.iconLoop = applet.loadImage("icon-loop.png");
-    this.iconMap = applet.loadImage("icon-map.png");
-    this.iconArm = applet.loadImage("icon-arm.png");
-    this.iconLfo = applet.loadImage("icon-lfo.png");
-    this.iconLoad = applet.loadImage("icon-load.png");
-    this.iconSave = applet.loadImage("icon-save.png");
-    this.iconSaveAs = applet.loadImage("icon-save-as.png");
-    this.iconNew = applet.loadImage("icon-new.png");
-    this.iconOpen = applet.loadImage("icon-open.png");
-    this.iconKeyboard = applet.loadImage("icon-keyboard.png");
-    this.iconPreferences = applet.loadImage("icon-preferences.png");
-    this.iconView = applet.loadImage("icon-view.png");
-    LX.initProfiler.log("P3LX: UI: Theme: Icons");
+    this.defaultLabelFont = addAsset("Inter-Black.ttf", () -> applet.createFont("Inter-Black.ttf", 10));
+
+    PImage[] icons = loadIcons(applet,
+      "icon-note.png",
+      "icon-tempo.png",
+      "icon-control.png",
+      "icon-trigger.png",
+      "icon-trigger-source.png",
+      "icon-loop.png",
+      "icon-map.png",
+      "icon-arm.png",
+      "icon-lfo.png",
+      "icon-load.png",
+      "icon-save.png",
+      "icon-save-as.png",
+      "icon-new.png",
+      "icon-open.png",
+      "icon-keyboard.png",
+      "icon-preferences.png",
+      "icon-view.png"
+    );
+    this.iconNote = icons[0];
+    this.iconTempo = icons[1];
+    this.iconControl = icons[2];
+    this.iconTrigger = icons[3];
+    this.iconTriggerSource = icons[4];
+    this.iconLoop = icons[5];
+    this.iconMap = icons[6];
+    this.iconArm = icons[7];
+    this.iconLfo = icons[8];
+    this.iconLoad = icons[9];
+    this.iconSave = icons[10];
+    this.iconSaveAs = icons[11];
+    this.iconNew = icons[12];
+    this.iconOpen = icons[13];
+    this.iconKeyboard = icons[14];
+    this.iconPreferences = icons[15];
+    this.iconView = icons[16];
+
+  }
+
+  private <T> Asset<T> addAsset(String name, Supplier<T> loader) {
+    Asset<T> asset = new Asset<T>(name, loader);
+    this.assets.add(asset);
+    return asset;
+  }
+
+  /**
+   * Loads the icons in parallel. Unlike fonts, these are loaded up front,
+   * since the public icon fields are read while the UI is being built.
+   */
+  private static PImage[] loadIcons(PApplet applet, String ... filenames) {
+    long start = System.nanoTime();
+    PImage[] icons = new PImage[filenames.length];
+    long[] elapsed = new long[filenames.length];
+    IntStream.range(0, filenames.length).parallel().forEach(i -> {
+      long iconStart = System.nanoTime();
+      icons[i] = applet.loadImage(filenames[i]);
+      elapsed[i] = System.nanoTime() - iconStart;
+    });
+    for (int i = 0; i < filenames.length; ++i) {
+      LX.initProfiler.log(String.format("P3LX: UI: Theme: %s (%.2fms)", filenames[i], elapsed[i] / 1e6));
+    }
+    LX.initProfiler.log(String.format("P3LX: UI: Theme: Icons (%.2fms)", (System.nanoTime() - start) / 1e6));
+    return icons;
+  }
+
+  /**
+   * Starts loading all of the theme's fonts in parallel on the common pool.
+   * Otherwise each asset is loaded on first use. Anything that
+   * requests an asset while it is loading waits for it to complete.
+   *
+   * @return this
+   */
+  public UITheme preload() {
+    for (Asset<?> asset : this.assets) {
+      ForkJoinPool.commonPool().execute(asset::get);
+    }
+    return this;
   }
 
   /**
@@ -131,7 +230,7 @@ public class UITheme {
    * @return The default item font
    */
   public PFont getControlFont() {
-    return this.controlFont;
+    return (this.controlFont != null) ? this.controlFont : this.defaultControlFont.get();
   }
 
   /**
@@ -151,7 +250,7 @@ public class UITheme {
    * @return default title font
    */
   public PFont getWindowTitleFont() {
-    return this.windowTitleFont;
+    return (this.windowTitleFont != null) ? this.windowTitleFont : this.defaultLabelFont.get();
   }
 
   /**
@@ -700,7 +799,7 @@ public class UITheme {
    * @return font
    */
   public PFont getLabelFont() {
-    return this.labelFont;
+    return (this.labelFont != null) ? this.labelFont : this.defaultLabelFont.get();
   }
 
   /**
@@ -715,7 +814,7 @@ public class UITheme {
   }
 
   public PFont getDeviceFont() {
-    return this.deviceFont;
+    return (this.deviceFont != null) ? this.deviceFont : this.defaultLabelFont.get();
   }
 
   /**
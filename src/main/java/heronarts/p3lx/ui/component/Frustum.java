@@ -0,0 +1,119 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui.component;
+
+import processing.core.PMatrix3D;
+import processing.opengl.PGraphicsOpenGL;
+
+/**
+ * View frustum of a 3d graphics context, expressed as six planes in model
+ * space so that bounding boxes can be tested against it directly.
+ */
+class Frustum {
+
+  static final int OUTSIDE = 0;
+  static final int INTERSECTS = 1;
+  static final int INSIDE = 2;
+
+  private static final int NUM_PLANES = 6;
+
+  // Plane i is a*x + b*y + c*z + d >= 0, stored as [a, b, c, d]
+  private final float[] planes = new float[4 * NUM_PLANES];
+
+  private final PMatrix3D projmodelview = new PMatrix3D();
+
+  /**
+   * Sets this frustum from the current projection and modelview of the
+   * graphics context.
+   *
+   * @param pg Graphics context
+   */
+  void set(PGraphicsOpenGL pg) {
+    this.projmodelview.set(pg.projection);
+    this.projmodelview.apply(pg.modelview);
+    set(this.projmodelview);
+  }
+
+  /**
+   * Extracts the planes from a combined projection and modelview matrix. Each
+   * clip-space bound -w <= x, y, z <= w becomes a plane formed from the sum or
+   * difference of the last row with one of the others.
+   *
+   * @param m Projection-modelview matrix
+   */
+  void set(PMatrix3D m) {
+    setPlane(0, m.m30 + m.m00, m.m31 + m.m01, m.m32 + m.m02, m.m33 + m.m03); // Left
+    setPlane(1, m.m30 - m.m00, m.m31 - m.m01, m.m32 - m.m02, m.m33 - m.m03); // Right
+    setPlane(2, m.m30 + m.m10, m.m31 + m.m11, m.m32 + m.m12, m.m33 + m.m13); // Bottom
+    setPlane(3, m.m30 - m.m10, m.m31 - m.m11, m.m32 - m.m12, m.m33 - m.m13); // Top
+    setPlane(4, m.m30 + m.m20, m.m31 + m.m21, m.m32 + m.m22, m.m33 + m.m23); // Near
+    setPlane(5, m.m30 - m.m20, m.m31 - m.m21, m.m32 - m.m22, m.m33 - m.m23); // Far
+  }
+
+  private void setPlane(int i, float a, float b, float c, float d) {
+    this.planes[4*i + 0] = a;
+    this.planes[4*i + 1] = b;
+    this.planes[4*i + 2] = c;
+    this.planes[4*i + 3] = d;
+  }
+
+  /**
+   * Classifies an axis-aligned bounding box against the frustum
+   *
+   * @param xMin Minimum x
+   * @param yMin Minimum y
+   * @param zMin Minimum z
+   * @param xMax Maximum x
+   * @param yMax Maximum y
+   * @param zMax Maximum z
+   * @return OUTSIDE, INTERSECTS or INSIDE
+   */
+  int classify(float xMin, float yMin, float zMin, float xMax, float yMax, float zMax) {
+    int result = INSIDE;
+    for (int i = 0; i < NUM_PLANES; ++i) {
+      float a = this.planes[4*i + 0];
+      float b = this.planes[4*i + 1];
+      float c = this.planes[4*i + 2];
+      float d = this.planes[4*i + 3];
+
+      // Test the corners furthest along and against the plane normal
+      float far =
+        a * ((a >= 0) ? xMax : xMin) +
+        b * ((b >= 0) ? yMax : yMin) +
+        c * ((c >= 0) ? zMax : zMin) + d;
+      if (far < 0) {
+        return OUTSIDE;
+      }
+      float near =
+        a * ((a >= 0) ? xMin : xMax) +
+        b * ((b >= 0) ? yMin : yMax) +
+        c * ((c >= 0) ? zMin : zMax) + d;
+      if (near < 0) {
+        result = INTERSECTS;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui.component;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+
+/**
+ * Bounding volume hierarchy over the points of a model, used to cull regions
+ * of the model that are outside the view. The leaves follow the model's
+ * sub-model structure where possible, so that each fixture is typically
+ * culled as a unit, and any group too large to cull effectively is split
+ * further in space.
+ */
+class PointBVH {
+
+  /**
+   * Groups of points larger than this are subdivided spatially
+   */
+  static final int MAX_LEAF_SIZE = 4096;
+
+  static class Node {
+    float xMin = Float.MAX_VALUE, yMin = Float.MAX_VALUE, zMin = Float.MAX_VALUE;
+    float xMax = -Float.MAX_VALUE, yMax = -Float.MAX_VALUE, zMax = -Float.MAX_VALUE;
+
+    // Range of this node's points in the hierarchy's index array
+    int start;
+    int end;
+
+    Node left = null;
+    Node right = null;
+
+    private void include(Node that) {
+      this.xMin = Math.min(this.xMin, that.xMin);
+      this.yMin = Math.min(this.yMin, that.yMin);
+      this.zMin = Math.min(this.zMin, that.zMin);
+      this.xMax = Math.max(this.xMax, that.xMax);
+      this.yMax = Math.max(this.yMax, that.yMax);
+      this.zMax = Math.max(this.zMax, that.zMax);
+    }
+
+    private void include(LXPoint p) {
+      this.xMin = Math.min(this.xMin, p.x);
+      this.yMin = Math.min(this.yMin, p.y);
+      this.zMin = Math.min(this.zMin, p.z);
+      this.xMax = Math.max(this.xMax, p.x);
+      this.yMax = Math.max(this.yMax, p.y);
+      this.zMax = Math.max(this.zMax, p.z);
+    }
+
+    boolean isLeaf() {
+      return this.left == null;
+    }
+  }
+
+  /**
+   * A set of points that are grouped together in the model structure
+   */
+  private static class Group {
+    final int[] indices;
+    final Node bounds = new Node();
+    final float cx, cy, cz;
+
+    Group(int[] indices, LXPoint[] byIndex) {
+      this.indices = indices;
+      for (int index : indices) {
+        this.bounds.include(byIndex[index]);
+      }
+      this.cx = (this.bounds.xMin + this.bounds.xMax) * .5f;
+      this.cy = (this.bounds.yMin + this.bounds.yMax) * .5f;
+      this.cz = (this.bounds.zMin + this.bounds.zMax) * .5f;
+    }
+  }
+
+  // Point indices, grouped so that every node covers a contiguous range
+  final int[] indices;
+
+  // Points looked up by LXPoint.index, which need not match array position
+  final LXPoint[] byIndex;
+
+  final Node root;
+
+  private int cursor = 0;
+
+  /**
+   * Builds a hierarchy over the points of the given model
+   *
+   * @param model Model
+   */
+  PointBVH(LXModel model) {
+    this.indices = new int[model.size];
+
+    LXPoint[] byIndex = this.byIndex = new LXPoint[model.size];
+    for (LXPoint p : model.points) {
+      byIndex[p.index] = p;
+    }
+
+    List<Group> groups = new ArrayList<Group>();
+    collectGroups(model, groups, new boolean[model.size], byIndex);
+    this.root = groups.isEmpty() ? new Node() : build(groups, byIndex);
+  }
+
+  /**
+   * Collects the leaf sub-models as groups, followed by any points of a parent
+   * model that don't belong to one of its children.
+   */
+  private static void collectGroups(LXModel model, List<Group> groups, boolean[] grouped, LXPoint[] byIndex) {
+    for (LXModel child : model.children) {
+      collectGroups(child, groups, grouped, byIndex);
+    }
+    int[] remaining = new int[model.points.length];
+    int numRemaining = 0;
+    for (LXPoint p : model.points) {
+      if (!grouped[p.index]) {
+        grouped[p.index] = true;
+        remaining[numRemaining++] = p.index;
+      }
+    }
+    if (numRemaining > 0) {
+      int[] indices = new int[numRemaining];
+      System.arraycopy(remaining, 0, indices, 0, numRemaining);
+      groups.add(new Group(indices, byIndex));
+    }
+  }
+
+  private Node build(List<Group> groups, LXPoint[] byIndex) {
+    if (groups.size() == 1) {
+      int[] indices = groups.get(0).indices;
+      return build(indices, 0, indices.length, byIndex);
+    }
+
+    // Split the groups in half along the longest axis of their centers
+    Node centers = new Node();
+    for (Group group : groups) {
+      centers.xMin = Math.min(centers.xMin, group.cx);
+      centers.yMin = Math.min(centers.yMin, group.cy);
+      centers.zMin = Math.min(centers.zMin, group.cz);
+      centers.xMax = Math.max(centers.xMax, group.cx);
+      centers.yMax = Math.max(centers.yMax, group.cy);
+      centers.zMax = Math.max(centers.zMax, group.cz);
+    }
+    final int axis = longestAxis(centers);
+    groups.sort((g1, g2) -> Float.compare(center(g1, axis), center(g2, axis)));
+    int mid = groups.size() / 2;
+
+    Node node = new Node();
+    node.start = this.cursor;
+    node.left = build(new ArrayList<Group>(groups.subList(0, mid)), byIndex);
+    node.right = build(new ArrayList<Group>(groups.subList(mid, groups.size())), byIndex);
+    node.end = this.cursor;
+    node.include(node.left);
+    node.include(node.right);
+    return node;
+  }
+
+  /**
+   * Builds nodes over a single group of points, splitting it in space if it is
+   * too large to be a leaf.
+   */
+  private Node build(int[] indices, int from, int to, LXPoint[] byIndex) {
+    Node node = new Node();
+    for (int i = from; i < to; ++i) {
+      node.include(byIndex[indices[i]]);
+    }
+    if (to - from <= MAX_LEAF_SIZE) {
+      node.start = this.cursor;
+      System.arraycopy(indices, from, this.indices, this.cursor, to - from);
+      this.cursor += to - from;
+      node.end = this.cursor;
+      return node;
+    }
+
+    // Partition about the middle of the longest axis
+    int axis = longestAxis(node);
+    float split = (axis == 0) ? (node.xMin + node.xMax) * .5f : (axis == 1) ? (node.yMin + node.yMax) * .5f : (node.zMin + node.zMax) * .5f;
+    int mid = from;
+    for (int i = from; i < to; ++i) {
+      if (coordinate(byIndex[indices[i]], axis) < split) {
+        int tmp = indices[mid];
+        indices[mid++] = indices[i];
+        indices[i] = tmp;
+      }
+    }
+    if ((mid == from) || (mid == to)) {
+      // Degenerate, all the points are in the same place
+      mid = (from + to) >>> 1;
+    }
+
+    node.start = this.cursor;
+    node.left = build(indices, from, mid, byIndex);
+    node.right = build(indices, mid, to, byIndex);
+    node.end = this.cursor;
+    return node;
+  }
+
+  private static int longestAxis(Node node) {
+    float xRange = node.xMax - node.xMin;
+    float yRange = node.yMax - node.yMin;
+    float zRange = node.zMax - node.zMin;
+    if ((xRange >= yRange) && (xRange >= zRange)) {
+      return 0;
+    }
+    return (yRange >= zRange) ? 1 : 2;
+  }
+
+  private static float center(Group group, int axis) {
+    return (axis == 0) ? group.cx : (axis == 1) ? group.cy : group.cz;
+  }
+
+  private static float coordinate(LXPoint p, int axis) {
+    return (axis == 0) ? p.x : (axis == 1) ? p.y : p.z;
+  }
+
+  /**
+   * Writes the indices of points in nodes that are not outside the frustum
+   * into the given buffer.
+   *
+   * @param frustum View frustum
+   * @param output Buffer to write point indices into, from position 0
+   * @return Number of indices written
+   */
+  int select(Frustum frustum, IntBuffer output) {
+    output.clear();
+    if (this.root.end > this.root.start) {
+      select(this.root, frustum, output);
+    }
+    int count = output.position();
+    output.flip();
+    return count;
+  }
+
+  private void select(Node node, Frustum frustum, IntBuffer output) {
+    switch (frustum.classify(node.xMin, node.yMin, node.zMin, node.xMax, node.yMax, node.zMax)) {
+    case Frustum.OUTSIDE:
+      return;
+    case Frustum.INTERSECTS:
+      if (!node.isLeaf()) {
+        select(node.left, frustum, output);
+        select(node.right, frustum, output);
+        return;
+      }
+      // Leaves are drawn whole, per-point tests aren't worth it
+      output.put(this.indices, node.start, node.end - node.start);
+      return;
+    default:
+      output.put(this.indices, node.start, node.end - node.start);
+      return;
+    }
+  }
+}
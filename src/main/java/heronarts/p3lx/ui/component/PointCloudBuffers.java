@@ -0,0 +1,553 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui.component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+import heronarts.p3lx.FrameSource;
+import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.opengl.PGL;
+
+/**
+ * GPU vertex and color buffers for a model. The vertex buffer is shared
+ * between all of the point clouds that draw the same model into the same GL
+ * context, and each combination of frame source and color settings shares a
+ * ring of color buffers on top of it. Both are reference counted and brought
+ * up to date at most once per UI frame, however many views draw them.
+ */
+class PointCloudBuffers {
+
+  /**
+   * Identifies a vertex buffer. Offscreen OpenGL graphics in a sketch share
+   * the GL context of the sketch's main surface, so the sketch stands in for
+   * the context.
+   */
+  private static class GeometryKey {
+    private final PApplet context;
+    private final LXModel model;
+
+    private GeometryKey(PApplet context, LXModel model) {
+      this.context = context;
+      this.model = model;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof GeometryKey)) {
+        return false;
+      }
+      GeometryKey that = (GeometryKey) obj;
+      return (this.context == that.context) && (this.model == that.model);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+        System.identityHashCode(this.context),
+        System.identityHashCode(this.model)
+      );
+    }
+  }
+
+  /**
+   * Identifies a ring of color buffers
+   */
+  private static class Key {
+    private final GeometryKey geometry;
+    private final FrameSource source;
+    private final boolean packed;
+    private final int numColorBuffers;
+
+    private Key(GeometryKey geometry, FrameSource source, boolean packed, int numColorBuffers) {
+      this.geometry = geometry;
+      this.source = source;
+      this.packed = packed;
+      this.numColorBuffers = numColorBuffers;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) obj;
+      return
+        this.geometry.equals(that.geometry) &&
+        (this.source == that.source) &&
+        (this.packed == that.packed) &&
+        (this.numColorBuffers == that.numColorBuffers);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+        this.geometry,
+        System.identityHashCode(this.source),
+        this.packed,
+        this.numColorBuffers
+      );
+    }
+  }
+
+  // Only ever accessed from the UI thread, which owns the GL context
+  private static final Map<GeometryKey, Geometry> geometryCache = new HashMap<GeometryKey, Geometry>();
+  private static final Map<Key, PointCloudBuffers> cache = new HashMap<Key, PointCloudBuffers>();
+
+  /**
+   * Gets the buffers for a model, creating them if no other view holds them.
+   * Every call must be balanced by a call to release.
+   *
+   * @param pg Graphics context that will draw the buffers
+   * @param source Source of the frames, since sequence numbers are per source
+   * @param model Model
+   * @param packed Whether colors are packed bytes
+   * @param numColorBuffers Number of color buffers in the ring
+   * @return Shared buffers
+   */
+  static PointCloudBuffers acquire(PGraphics pg, FrameSource source, LXModel model, boolean packed, int numColorBuffers) {
+    GeometryKey geometryKey = new GeometryKey(pg.parent, model);
+    Key key = new Key(geometryKey, source, packed, numColorBuffers);
+    PointCloudBuffers buffers = cache.get(key);
+    if (buffers == null) {
+      Geometry geometry = geometryCache.get(geometryKey);
+      if (geometry == null) {
+        geometry = new Geometry(geometryKey, pg);
+        geometryCache.put(geometryKey, geometry);
+      }
+      ++geometry.refCount;
+      buffers = new PointCloudBuffers(key, geometry, pg);
+      cache.put(key, buffers);
+    }
+    ++buffers.refCount;
+    return buffers;
+  }
+
+  /**
+   * Vertex buffer for a model, along with the spatial indices over it
+   */
+  private static class Geometry {
+
+    private static final int MAX_GEOMETRY_RANGES = 64;
+
+    private final GeometryKey key;
+    private int refCount = 0;
+
+    private final LXModel model;
+    private int modelGeneration;
+
+    // Incremented whenever any vertex positions change
+    private int geometryVersion = 0;
+
+    private final FloatBuffer vertexData;
+    private final int vertexBufferObjectName;
+
+    // Sub-models whose points are diffed as a unit when the geometry changes
+    private List<LXModel> geometryGroups = null;
+    private final int[] geometryRangeStart = new int[MAX_GEOMETRY_RANGES];
+    private final int[] geometryRangeEnd = new int[MAX_GEOMETRY_RANGES];
+
+    // Spatial indices, built on demand. The octree is built on the common
+    // pool, since it is large and only an optimization
+    private PointOctree octree = null;
+    private ForkJoinTask<PointOctree> octreeBuild = null;
+    private PointBVH bvh = null;
+
+    private Geometry(GeometryKey key, PGraphics pg) {
+      this.key = key;
+      this.model = key.model;
+      this.modelGeneration = this.model.getGeneration();
+
+      // Create a buffer for vertex data
+      this.vertexData = ByteBuffer
+        .allocateDirect(this.model.size * 3 * Float.SIZE/8)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+
+      // Put all the points into the buffer, slotted by point index so that
+      // the color buffers line up directly with the frame's color array
+      for (LXPoint p : this.model.points) {
+        // Each point has 3 floats, XYZ
+        this.vertexData.put(3*p.index + 0, p.x);
+        this.vertexData.put(3*p.index + 1, p.y);
+        this.vertexData.put(3*p.index + 2, p.z);
+      }
+      this.vertexData.position(0);
+
+      IntBuffer resultBuffer = ByteBuffer
+        .allocateDirect(Integer.SIZE/8)
+        .order(ByteOrder.nativeOrder())
+        .asIntBuffer();
+      PGL pgl = pg.beginPGL();
+      pgl.genBuffers(1, resultBuffer);
+      this.vertexBufferObjectName = resultBuffer.get(0);
+      pgl.bindBuffer(PGL.ARRAY_BUFFER, this.vertexBufferObjectName);
+      pgl.bufferData(PGL.ARRAY_BUFFER, this.model.size * 3 * Float.SIZE/8, this.vertexData, PGL.DYNAMIC_DRAW);
+      pgl.bindBuffer(PGL.ARRAY_BUFFER, 0);
+      pg.endPGL();
+    }
+
+    private void release(PGraphics pg) {
+      if (--this.refCount > 0) {
+        return;
+      }
+      geometryCache.remove(this.key);
+      IntBuffer names = ByteBuffer
+        .allocateDirect(Integer.SIZE/8)
+        .order(ByteOrder.nativeOrder())
+        .asIntBuffer();
+      names.put(0, this.vertexBufferObjectName);
+      PGL pgl = pg.beginPGL();
+      pgl.deleteBuffers(1, names);
+      pg.endPGL();
+    }
+
+    private void update(PGL pgl, UIGLPointCloud.Profiler profiler) {
+      int modelGeneration = this.model.getGeneration();
+      if (modelGeneration != this.modelGeneration) {
+        this.modelGeneration = modelGeneration;
+        updateGeometry(pgl, profiler);
+      }
+    }
+
+    /**
+     * Finds the leaf sub-models, typically fixtures, that geometry changes are
+     * tracked by. The model itself is added last if any of its points are not
+     * in one of the leaves.
+     */
+    private static void collectGeometryGroups(LXModel model, List<LXModel> groups, boolean[] grouped) {
+      for (LXModel child : model.children) {
+        collectGeometryGroups(child, groups, grouped);
+      }
+      if (model.children.length == 0) {
+        groups.add(model);
+        for (LXPoint p : model.points) {
+          grouped[p.index] = true;
+        }
+      }
+    }
+
+    private List<LXModel> getGeometryGroups() {
+      if (this.geometryGroups == null) {
+        List<LXModel> groups = new ArrayList<LXModel>();
+        boolean[] grouped = new boolean[this.model.size];
+        collectGeometryGroups(this.model, groups, grouped);
+        for (boolean g : grouped) {
+          if (!g) {
+            groups.add(this.model);
+            break;
+          }
+        }
+        this.geometryGroups = groups;
+      }
+      return this.geometryGroups;
+    }
+
+    /**
+     * Compares model positions against the vertex buffer one group at a time,
+     * rewriting and uploading the changed index range of each group that moved.
+     */
+    private void updateGeometry(PGL pgl, UIGLPointCloud.Profiler profiler) {
+      long geometryStart = System.nanoTime();
+      int numRanges = 0;
+      int minChanged = Integer.MAX_VALUE;
+      int maxChanged = -1;
+      for (LXModel group : getGeometryGroups()) {
+        int groupMin = Integer.MAX_VALUE;
+        int groupMax = -1;
+        for (LXPoint p : group.points) {
+          int i = 3 * p.index;
+          if ((this.vertexData.get(i) != p.x) ||
+              (this.vertexData.get(i + 1) != p.y) ||
+              (this.vertexData.get(i + 2) != p.z)) {
+            this.vertexData.put(i, p.x);
+            this.vertexData.put(i + 1, p.y);
+            this.vertexData.put(i + 2, p.z);
+            groupMin = Math.min(groupMin, p.index);
+            groupMax = Math.max(groupMax, p.index);
+          }
+        }
+        if (groupMax >= 0) {
+          minChanged = Math.min(minChanged, groupMin);
+          maxChanged = Math.max(maxChanged, groupMax);
+          if (numRanges < MAX_GEOMETRY_RANGES) {
+            this.geometryRangeStart[numRanges] = groupMin;
+            this.geometryRangeEnd[numRanges] = groupMax + 1;
+          }
+          ++numRanges;
+        }
+      }
+      if (numRanges == 0) {
+        return;
+      }
+      if (numRanges > MAX_GEOMETRY_RANGES) {
+        // Lots of fixtures moved, send one range that spans them all
+        this.geometryRangeStart[0] = minChanged;
+        this.geometryRangeEnd[0] = maxChanged + 1;
+        numRanges = 1;
+      }
+
+      final int bytesPerVertex = 3 * Float.SIZE/8;
+      profiler.geometryBytes = 0;
+      pgl.bindBuffer(PGL.ARRAY_BUFFER, this.vertexBufferObjectName);
+      for (int r = 0; r < numRanges; ++r) {
+        int start = this.geometryRangeStart[r];
+        int bytes = (this.geometryRangeEnd[r] - start) * bytesPerVertex;
+        this.vertexData.position(3 * start);
+        pgl.bufferSubData(PGL.ARRAY_BUFFER, start * bytesPerVertex, bytes, this.vertexData);
+        profiler.geometryBytes += bytes;
+      }
+      pgl.bindBuffer(PGL.ARRAY_BUFFER, 0);
+      this.vertexData.position(0);
+      profiler.geometryRanges = numRanges;
+      profiler.geometryNanos = System.nanoTime() - geometryStart;
+
+      // Any octree build in flight is for the old positions, let it finish
+      // unobserved and start again on next use
+      this.octree = null;
+      this.octreeBuild = null;
+      this.bvh = null;
+      ++this.geometryVersion;
+    }
+  }
+
+  private final Key key;
+  private final Geometry geometry;
+  private int refCount = 0;
+
+  final FrameSource source;
+  final LXModel model;
+  final boolean packed;
+  final int numColorBuffers;
+  final int vertexBufferObjectName;
+
+  // Ring of color buffers, each with its own record of what was last uploaded
+  // to it, so the GPU can still be reading one while the next is written
+  private final UIGLPointCloud.ColorBuffer[] colorBuffers;
+  private final int[] colorBufferObjectNames;
+  private final int[] colorBufferObjectSizes;
+  private int colorBufferIndex = 0;
+  private UIGLPointCloud.ColorBuffer colorBuffer;
+
+  // Frame sequence that the current color buffer holds
+  private int frameSequence;
+  private boolean hasFrame = false;
+
+  private PointCloudBuffers(Key key, Geometry geometry, PGraphics pg) {
+    this.key = key;
+    this.geometry = geometry;
+    this.source = key.source;
+    this.model = geometry.model;
+    this.packed = key.packed;
+    this.numColorBuffers = key.numColorBuffers;
+    this.vertexBufferObjectName = geometry.vertexBufferObjectName;
+
+    // Buffers for color data
+    int numColorBuffers = key.numColorBuffers;
+    this.colorBuffers = new UIGLPointCloud.ColorBuffer[numColorBuffers];
+    for (int i = 0; i < numColorBuffers; ++i) {
+      this.colorBuffers[i] = new UIGLPointCloud.ColorBuffer(this.model.size, this.packed);
+    }
+    this.colorBuffer = this.colorBuffers[0];
+    this.colorBufferObjectNames = new int[numColorBuffers];
+    this.colorBufferObjectSizes = new int[numColorBuffers];
+
+    // Generate buffer bindings, storage is allocated on first upload
+    IntBuffer resultBuffer = ByteBuffer
+      .allocateDirect(numColorBuffers * Integer.SIZE/8)
+      .order(ByteOrder.nativeOrder())
+      .asIntBuffer();
+    PGL pgl = pg.beginPGL();
+    pgl.genBuffers(numColorBuffers, resultBuffer);
+    resultBuffer.get(this.colorBufferObjectNames);
+    pg.endPGL();
+  }
+
+  /**
+   * Releases a reference to these buffers, freeing the GL resources if this
+   * was the last one.
+   *
+   * @param pg Graphics context
+   */
+  void release(PGraphics pg) {
+    if (--this.refCount > 0) {
+      return;
+    }
+    cache.remove(this.key);
+    IntBuffer names = ByteBuffer
+      .allocateDirect(this.colorBufferObjectNames.length * Integer.SIZE/8)
+      .order(ByteOrder.nativeOrder())
+      .asIntBuffer();
+    names.put(this.colorBufferObjectNames);
+    names.position(0);
+    PGL pgl = pg.beginPGL();
+    pgl.deleteBuffers(names.capacity(), names);
+    pg.endPGL();
+    this.geometry.release(pg);
+  }
+
+  /**
+   * Name of the color buffer holding the most recent frame
+   *
+   * @return GL buffer name
+   */
+  int getColorBufferObjectName() {
+    return this.colorBufferObjectNames[this.colorBufferIndex];
+  }
+
+  /**
+   * Version of the vertex positions, which changes whenever any point moves
+   *
+   * @return Geometry version
+   */
+  int getGeometryVersion() {
+    return this.geometry.geometryVersion;
+  }
+
+  /**
+   * Gets the octree for the model, starting a build in the background if
+   * there is none yet.
+   *
+   * @return Octree, or null if it is still being built
+   */
+  PointOctree getOctree() {
+    Geometry geometry = this.geometry;
+    if (geometry.octree == null) {
+      if (geometry.octreeBuild == null) {
+        final LXPoint[] points = this.model.points;
+        geometry.octreeBuild = ForkJoinPool.commonPool().submit(() -> new PointOctree(points));
+      } else if (geometry.octreeBuild.isDone()) {
+        geometry.octree = geometry.octreeBuild.join();
+        geometry.octreeBuild = null;
+      }
+    }
+    return geometry.octree;
+  }
+
+  /**
+   * Whether the octree is available, or its background build has completed
+   * and getOctree() will return it
+   *
+   * @return true if the octree is ready
+   */
+  boolean isOctreeReady() {
+    Geometry geometry = this.geometry;
+    return (geometry.octree != null) || ((geometry.octreeBuild != null) && geometry.octreeBuild.isDone());
+  }
+
+  PointBVH getBVH() {
+    if (this.geometry.bvh == null) {
+      this.geometry.bvh = new PointBVH(this.model);
+    }
+    return this.geometry.bvh;
+  }
+
+  /**
+   * Brings the vertex and color buffers up to date with the given frame. This
+   * is a no-op if another view has already done so for the same frame.
+   *
+   * @param pgl GL context, with no array buffer bound
+   * @param colors Frame colors
+   * @param frameSequence UI frame sequence number
+   * @param fullUploadThreshold Changed fraction above which all colors are sent
+   * @param parallelThreshold Number of points above which colors are converted in parallel
+   * @param profiler Profiler to record upload costs into
+   */
+  void update(PGL pgl, int[] colors, int frameSequence, float fullUploadThreshold, int parallelThreshold, UIGLPointCloud.Profiler profiler) {
+    this.geometry.update(pgl, profiler);
+
+    profiler.colorBytes = 0;
+    profiler.colorRanges = 0;
+    profiler.uploadNanos = 0;
+    if (this.hasFrame && (frameSequence == this.frameSequence)) {
+      return;
+    }
+
+    // Stage whichever colors have changed in the next buffer of the ring
+    if (this.hasFrame) {
+      this.colorBufferIndex = (this.colorBufferIndex + 1) % this.colorBuffers.length;
+      this.colorBuffer = this.colorBuffers[this.colorBufferIndex];
+    }
+    this.frameSequence = frameSequence;
+    this.hasFrame = true;
+    this.colorBuffer.update(colors, parallelThreshold);
+
+    long uploadStart = System.nanoTime();
+    pgl.bindBuffer(PGL.ARRAY_BUFFER, this.colorBufferObjectNames[this.colorBufferIndex]);
+    uploadColors(pgl, fullUploadThreshold, profiler);
+    pgl.bindBuffer(PGL.ARRAY_BUFFER, 0);
+    profiler.uploadNanos = System.nanoTime() - uploadStart;
+  }
+
+  private void uploadColors(PGL pgl, float fullUploadThreshold, UIGLPointCloud.Profiler profiler) {
+    UIGLPointCloud.ColorBuffer colorBuffer = this.colorBuffer;
+    int totalBytes = colorBuffer.size * colorBuffer.bytesPerPoint;
+
+    profiler.colorChangedFraction = colorBuffer.getChangedFraction();
+
+    if (this.colorBufferObjectSizes[this.colorBufferIndex] != totalBytes) {
+      // Buffer storage needs to be allocated, this only happens for a fresh
+      // ColorBuffer which has been fully written out already
+      pgl.bufferData(PGL.ARRAY_BUFFER, totalBytes, colorBuffer.getData(0), PGL.DYNAMIC_DRAW);
+      this.colorBufferObjectSizes[this.colorBufferIndex] = totalBytes;
+      profiler.colorBytes = totalBytes;
+      profiler.colorRanges = 1;
+    } else if (colorBuffer.dirtyBlockCount == 0) {
+      // Nothing changed, nothing to send
+    } else if (this.colorBuffers.length == 1) {
+      // Without a ring, the GPU may still be drawing from this buffer.
+      // Re-specifying its storage lets the driver orphan the old contents
+      // rather than stall, but means everything needs to be sent.
+      pgl.bufferData(PGL.ARRAY_BUFFER, totalBytes, colorBuffer.getData(0), PGL.DYNAMIC_DRAW);
+      profiler.colorBytes = totalBytes;
+      profiler.colorRanges = 1;
+    } else if ((colorBuffer.numRanges < 0) || (profiler.colorChangedFraction > fullUploadThreshold)) {
+      pgl.bufferSubData(PGL.ARRAY_BUFFER, 0, totalBytes, colorBuffer.getData(0));
+      profiler.colorBytes = totalBytes;
+      profiler.colorRanges = 1;
+    } else {
+      for (int r = 0; r < colorBuffer.numRanges; ++r) {
+        int start = colorBuffer.rangeStart[r];
+        int bytes = (colorBuffer.rangeEnd[r] - start) * colorBuffer.bytesPerPoint;
+        pgl.bufferSubData(PGL.ARRAY_BUFFER, start * colorBuffer.bytesPerPoint, bytes, colorBuffer.getData(start));
+        profiler.colorBytes += bytes;
+      }
+      profiler.colorRanges = colorBuffer.numRanges;
+    }
+    colorBuffer.getData(0);
+  }
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui.component;
+
+import java.nio.IntBuffer;
+
+import heronarts.lx.model.LXPoint;
+import processing.core.PMatrix3D;
+
+/**
+ * Octree over a set of model points, used to select a reduced level of detail
+ * for rendering. Point indices are never reordered on the GPU, the octree only
+ * produces a list of LXPoint indices to draw, so color buffers keep mapping
+ * directly to the frame's color array.
+ */
+class PointOctree {
+
+  /**
+   * Maximum number of points in a leaf cell
+   */
+  static final int LEAF_SIZE = 64;
+
+  /**
+   * Maximum subdivision depth, guards against many coincident points
+   */
+  static final int MAX_DEPTH = 16;
+
+  static class Node {
+    final float cx, cy, cz;
+    final float halfSize;
+
+    // Range of this node's points in the octree's index array
+    final int start;
+    final int end;
+
+    // Index of the point that represents this cell at reduced detail
+    int representative;
+
+    Node[] children = null;
+
+    private Node(float cx, float cy, float cz, float halfSize, int start, int end) {
+      this.cx = cx;
+      this.cy = cy;
+      this.cz = cz;
+      this.halfSize = halfSize;
+      this.start = start;
+      this.end = end;
+    }
+
+    boolean isLeaf() {
+      return this.children == null;
+    }
+  }
+
+  // Point indices, grouped so that every node covers a contiguous range
+  final int[] indices;
+
+  final Node root;
+
+  private final float[] eye = new float[4];
+
+  /**
+   * Builds an octree over the given points
+   *
+   * @param points Model points
+   */
+  PointOctree(LXPoint[] points) {
+    this.indices = new int[points.length];
+    float xMin = Float.MAX_VALUE, yMin = Float.MAX_VALUE, zMin = Float.MAX_VALUE;
+    float xMax = -Float.MAX_VALUE, yMax = -Float.MAX_VALUE, zMax = -Float.MAX_VALUE;
+    for (int i = 0; i < points.length; ++i) {
+      LXPoint p = points[i];
+      this.indices[i] = p.index;
+      xMin = Math.min(xMin, p.x);
+      yMin = Math.min(yMin, p.y);
+      zMin = Math.min(zMin, p.z);
+      xMax = Math.max(xMax, p.x);
+      yMax = Math.max(yMax, p.y);
+      zMax = Math.max(zMax, p.z);
+    }
+    if (points.length == 0) {
+      xMin = yMin = zMin = xMax = yMax = zMax = 0;
+    }
+
+    // Points looked up by LXPoint.index, which need not match array position
+    LXPoint[] byIndex = new LXPoint[points.length];
+    for (LXPoint p : points) {
+      byIndex[p.index] = p;
+    }
+
+    float halfSize = Math.max(xMax - xMin, Math.max(yMax - yMin, zMax - zMin)) * .5f;
+    this.root = build(
+      (xMin + xMax) * .5f, (yMin + yMax) * .5f, (zMin + zMax) * .5f,
+      halfSize, 0, points.length, 0,
+      byIndex, new int[points.length]
+    );
+  }
+
+  private Node build(float cx, float cy, float cz, float halfSize, int start, int end, int depth, LXPoint[] byIndex, int[] scratch) {
+    Node node = new Node(cx, cy, cz, halfSize, start, end);
+    node.representative = closestTo(cx, cy, cz, start, end, byIndex);
+    if ((end - start <= LEAF_SIZE) || (depth >= MAX_DEPTH)) {
+      return node;
+    }
+
+    // Counting sort this node's range into octants
+    int[] counts = new int[8];
+    for (int i = start; i < end; ++i) {
+      ++counts[octant(byIndex[this.indices[i]], cx, cy, cz)];
+    }
+    int[] offsets = new int[8];
+    for (int o = 0, offset = start; o < 8; ++o) {
+      offsets[o] = offset;
+      offset += counts[o];
+    }
+    for (int i = start; i < end; ++i) {
+      int index = this.indices[i];
+      scratch[offsets[octant(byIndex[index], cx, cy, cz)]++] = index;
+    }
+    System.arraycopy(scratch, start, this.indices, start, end - start);
+
+    float quarter = halfSize * .5f;
+    node.children = new Node[8];
+    for (int o = 0, offset = start; o < 8; ++o) {
+      node.children[o] = build(
+        cx + (((o & 1) != 0) ? quarter : -quarter),
+        cy + (((o & 2) != 0) ? quarter : -quarter),
+        cz + (((o & 4) != 0) ? quarter : -quarter),
+        quarter, offset, offset + counts[o], depth + 1, byIndex, scratch
+      );
+      offset += counts[o];
+    }
+    return node;
+  }
+
+  private static int octant(LXPoint p, float cx, float cy, float cz) {
+    return
+      ((p.x >= cx) ? 1 : 0) |
+      ((p.y >= cy) ? 2 : 0) |
+      ((p.z >= cz) ? 4 : 0);
+  }
+
+  private int closestTo(float cx, float cy, float cz, int start, int end, LXPoint[] byIndex) {
+    int closest = -1;
+    float closestDist = Float.MAX_VALUE;
+    for (int i = start; i < end; ++i) {
+      LXPoint p = byIndex[this.indices[i]];
+      float dx = p.x - cx, dy = p.y - cy, dz = p.z - cz;
+      float dist = dx*dx + dy*dy + dz*dz;
+      if (dist < closestDist) {
+        closest = p.index;
+        closestDist = dist;
+      }
+    }
+    return closest;
+  }
+
+  /**
+   * Writes the indices of points to draw into the given buffer. Any cell
+   * whose projected size is below the threshold is drawn as its single
+   * representative point, otherwise the cell is subdivided. Leaves that are
+   * only a few times the threshold are thinned out to match their size on
+   * screen. If a frustum is given, cells entirely outside of it are skipped.
+   *
+   * @param modelview Modelview matrix
+   * @param projection Projection matrix
+   * @param viewportHeight Height of the viewport in pixels
+   * @param threshold Projected cell size in pixels below which detail is reduced
+   * @param frustum View frustum to cull against, may be null
+   * @param output Buffer to write point indices into, from position 0
+   * @return Number of indices written
+   */
+  int select(PMatrix3D modelview, PMatrix3D projection, float viewportHeight, float threshold, Frustum frustum, IntBuffer output) {
+    output.clear();
+    if (this.root.end > this.root.start) {
+      // Converts a world-space size into pixels, divided by clip w
+      float pixelScale = Math.abs(projection.m11) * viewportHeight * .5f;
+      select(this.root, modelview, projection, pixelScale, threshold, frustum, output);
+    }
+    int count = output.position();
+    output.flip();
+    return count;
+  }
+
+  private void select(Node node, PMatrix3D modelview, PMatrix3D projection, float pixelScale, float threshold, Frustum frustum, IntBuffer output) {
+    if (node.end == node.start) {
+      return;
+    }
+    if (frustum != null) {
+      float h = node.halfSize;
+      switch (frustum.classify(node.cx - h, node.cy - h, node.cz - h, node.cx + h, node.cy + h, node.cz + h)) {
+      case Frustum.OUTSIDE:
+        return;
+      case Frustum.INSIDE:
+        // No need to test any further down
+        frustum = null;
+        break;
+      }
+    }
+    float w = clipW(node, modelview, projection);
+    // The bounding sphere of the cell, relative to its nearest extent
+    float radius = node.halfSize * 1.7320508f;
+    float nearW = w - radius * Math.abs(projection.m32);
+    if (nearW > 0) {
+      float projectedSize = 2 * radius * pixelScale / nearW;
+      if (projectedSize < threshold) {
+        output.put(node.representative);
+        return;
+      }
+      if (node.isLeaf()) {
+        // Thin out the leaf to about one point per threshold-sized square of
+        // the screen it covers
+        int count = node.end - node.start;
+        float ratio = projectedSize / threshold;
+        int keep = (int) Math.min(count, Math.ceil(ratio * ratio));
+        if (keep < count) {
+          int stride = (count + keep - 1) / keep;
+          for (int i = node.start; i < node.end; i += stride) {
+            output.put(this.indices[i]);
+          }
+          return;
+        }
+      }
+    }
+    if (node.isLeaf()) {
+      output.put(this.indices, node.start, node.end - node.start);
+      return;
+    }
+    for (Node child : node.children) {
+      select(child, modelview, projection, pixelScale, threshold, frustum, output);
+    }
+  }
+
+  private float clipW(Node node, PMatrix3D modelview, PMatrix3D projection) {
+    float[] eye = this.eye;
+    eye[0] = modelview.m00 * node.cx + modelview.m01 * node.cy + modelview.m02 * node.cz + modelview.m03;
+    eye[1] = modelview.m10 * node.cx + modelview.m11 * node.cy + modelview.m12 * node.cz + modelview.m13;
+    eye[2] = modelview.m20 * node.cx + modelview.m21 * node.cy + modelview.m22 * node.cz + modelview.m23;
+    eye[3] = modelview.m30 * node.cx + modelview.m31 * node.cy + modelview.m32 * node.cz + modelview.m33;
+    return
+      projection.m30 * eye[0] +
+      projection.m31 * eye[1] +
+      projection.m32 * eye[2] +
+      projection.m33 * eye[3];
+  }
+}
@@ -24,19 +24,23 @@
 
 package heronarts.p3lx.ui.component;
 
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.jogamp.opengl.GL2;
 import processing.core.PGraphics;
 import processing.opengl.PGL;
+import processing.opengl.PGraphicsOpenGL;
 import processing.opengl.PJOGL;
 import processing.opengl.PShader;
 import heronarts.lx.LXEngine;
 import heronarts.lx.model.LXModel;
-import heronarts.lx.model.LXPoint;
 import heronarts.p3lx.P3LX;
 import heronarts.p3lx.ui.UI;
 
@@ -46,22 +50,288 @@ import heronarts.p3lx.ui.UI;
  */
 public class UIGLPointCloud extends UIPointCloud {
 
+  /**
+   * CPU-side staging area for point colors. Keeps a copy of the colors that
+   * were last uploaded to the GPU and tracks which blocks of points have
+   * changed since, so that only those ranges need to be re-sent.
+   */
+  static class ColorBuffer {
+
+    /**
+     * Number of points per change-tracking block
+     */
+    static final int BLOCK_SIZE = 256;
+
+    /**
+     * Past this many discontiguous ranges a full upload is cheaper
+     */
+    static final int MAX_RANGES = 64;
+
+    final int size;
+    final boolean packed;
+    final int bytesPerPoint;
+
+    final FloatBuffer floatData;
+    final IntBuffer packedData;
+
+    private final int[] uploaded;
+    private final boolean[] dirtyBlocks;
+    private boolean forceFull = true;
+
+    int dirtyBlockCount = 0;
+
+    // Coalesced ranges of changed points, start inclusive and end exclusive
+    final int[] rangeStart = new int[MAX_RANGES];
+    final int[] rangeEnd = new int[MAX_RANGES];
+    int numRanges = 0;
+
+    ColorBuffer(int size, boolean packed) {
+      this.size = size;
+      this.packed = packed;
+      if (packed) {
+        // This is explicitly little-endian so that an ARGB int always lands in
+        // memory as B, G, R, A bytes, which the vertex shader swizzles back.
+        this.bytesPerPoint = Integer.SIZE/8;
+        this.floatData = null;
+        this.packedData = ByteBuffer
+          .allocateDirect(size * this.bytesPerPoint)
+          .order(ByteOrder.LITTLE_ENDIAN)
+          .asIntBuffer();
+      } else {
+        // Each point has 4 floats, RGBA
+        this.bytesPerPoint = 4 * Float.SIZE/8;
+        this.packedData = null;
+        this.floatData = ByteBuffer
+          .allocateDirect(size * this.bytesPerPoint)
+          .order(ByteOrder.nativeOrder())
+          .asFloatBuffer();
+        for (int i = 0; i < size; ++i) {
+          this.floatData.put(4*i + 3, 1f);
+        }
+      }
+      this.uploaded = new int[size];
+      this.dirtyBlocks = new boolean[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+    }
+
+    /**
+     * Marks the entire buffer as needing to be written and uploaded
+     */
+    void invalidate() {
+      this.forceFull = true;
+    }
+
+    /**
+     * Diffs the given colors against what was last uploaded, writing any changed
+     * values into the staging buffer and computing the ranges that changed.
+     *
+     * @param colors Frame colors, indexed by point
+     */
+    void update(int[] colors) {
+      update(colors, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Diffs the given colors against what was last uploaded, splitting the work
+     * across the common fork-join pool if there are at least parallelThreshold
+     * points.
+     *
+     * @param colors Frame colors, indexed by point
+     * @param parallelThreshold Minimum number of points to process in parallel
+     */
+    void update(int[] colors, int parallelThreshold) {
+      final boolean forceFull = this.forceFull;
+      this.forceFull = false;
+      if ((this.size >= parallelThreshold) && (ForkJoinPool.getCommonPoolParallelism() > 1)) {
+        ForkJoinPool.commonPool().invoke(new UpdateTask(colors, forceFull, 0, this.dirtyBlocks.length));
+      } else {
+        updateBlocks(colors, forceFull, 0, this.dirtyBlocks.length);
+      }
+      this.dirtyBlockCount = 0;
+      for (boolean dirty : this.dirtyBlocks) {
+        if (dirty) {
+          ++this.dirtyBlockCount;
+        }
+      }
+      coalesceRanges();
+    }
+
+    /**
+     * Diffs and writes a range of blocks. Blocks are disjoint slices of all the
+     * arrays and of the direct buffer, written with absolute puts, so separate
+     * ranges may safely be processed concurrently.
+     */
+    private void updateBlocks(int[] colors, boolean forceFull, int fromBlock, int toBlock) {
+      for (int b = fromBlock; b < toBlock; ++b) {
+        int start = b * BLOCK_SIZE;
+        int end = Math.min(this.size, start + BLOCK_SIZE);
+        boolean dirty = forceFull;
+        for (int i = start; i < end; ++i) {
+          int c = colors[i];
+          if (forceFull || (c != this.uploaded[i])) {
+            this.uploaded[i] = c;
+            if (this.packed) {
+              this.packedData.put(i, c);
+            } else {
+              this.floatData.put(4*i + 0, (0xff & (c >> 16)) / 255f); // R
+              this.floatData.put(4*i + 1, (0xff & (c >> 8)) / 255f);  // G
+              this.floatData.put(4*i + 2, (0xff & (c)) / 255f);       // B
+            }
+            dirty = true;
+          }
+        }
+        this.dirtyBlocks[b] = dirty;
+      }
+    }
+
+    /**
+     * Recursively splits a range of blocks in half until it is small enough to
+     * be worth processing on a single worker.
+     */
+    private class UpdateTask extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+
+      private static final int MIN_BLOCKS = 64;
+
+      private final int[] colors;
+      private final boolean forceFull;
+      private final int fromBlock;
+      private final int toBlock;
+
+      private UpdateTask(int[] colors, boolean forceFull, int fromBlock, int toBlock) {
+        this.colors = colors;
+        this.forceFull = forceFull;
+        this.fromBlock = fromBlock;
+        this.toBlock = toBlock;
+      }
+
+      @Override
+      protected void compute() {
+        if (this.toBlock - this.fromBlock <= MIN_BLOCKS) {
+          updateBlocks(this.colors, this.forceFull, this.fromBlock, this.toBlock);
+        } else {
+          int mid = (this.fromBlock + this.toBlock) >>> 1;
+          invokeAll(
+            new UpdateTask(this.colors, this.forceFull, this.fromBlock, mid),
+            new UpdateTask(this.colors, this.forceFull, mid, this.toBlock)
+          );
+        }
+      }
+    }
+
+    private void coalesceRanges() {
+      this.numRanges = 0;
+      int b = 0;
+      while (b < this.dirtyBlocks.length) {
+        if (!this.dirtyBlocks[b]) {
+          ++b;
+          continue;
+        }
+        int start = b;
+        while ((b < this.dirtyBlocks.length) && this.dirtyBlocks[b]) {
+          ++b;
+        }
+        if (this.numRanges == MAX_RANGES) {
+          // Too fragmented, signal that this should be a full upload
+          this.numRanges = -1;
+          return;
+        }
+        this.rangeStart[this.numRanges] = start * BLOCK_SIZE;
+        this.rangeEnd[this.numRanges] = Math.min(this.size, b * BLOCK_SIZE);
+        ++this.numRanges;
+      }
+    }
+
+    /**
+     * Fraction of the points that were found to have changed, at block
+     * granularity
+     *
+     * @return Changed fraction, from 0 to 1
+     */
+    float getChangedFraction() {
+      return (this.dirtyBlocks.length == 0) ? 0 : this.dirtyBlockCount / (float) this.dirtyBlocks.length;
+    }
+
+    /**
+     * Returns the staging buffer positioned at the given point offset
+     *
+     * @param offset Point offset
+     * @return Data buffer
+     */
+    Buffer getData(int offset) {
+      if (this.packed) {
+        this.packedData.position(offset);
+        return this.packedData;
+      }
+      this.floatData.position(4 * offset);
+      return this.floatData;
+    }
+  }
+
+  public class Profiler {
+    public long colorBytes = 0;
+    public int colorRanges = 0;
+    public float colorChangedFraction = 0;
+    public int pointsDrawn = 0;
+    public long uploadNanos = 0;
+
+    // Cost of the most recent geometry change
+    public long geometryNanos = 0;
+    public long geometryBytes = 0;
+    public int geometryRanges = 0;
+  }
+
+  /**
+   * Upload counters for the last frame that was drawn. Views sharing buffers
+   * with this one may have done the uploading, in which case these are zero.
+   */
+  public final Profiler profiler = new Profiler();
+
   private PShader shader;
-  private FloatBuffer vertexData;
-  private int vertexBufferObjectName;
 
-  private FloatBuffer colorData;
-  private int colorBufferObjectName;
+  // Vertex and color buffers, shared with other views of the same model
+  private PointCloudBuffers buffers = null;
+  private PGraphics buffersGraphics = null;
+  private int geometryVersion = -1;
+
+  private int numColorBuffers = 2;
 
   private int vertexLocation = -1;
   private int colorLocation = -1;
 
   private boolean alphaTestEnabled = false;
 
-  private static final float[] NO_ATTENUATION = { 1, 0, 0 };
+  private boolean packedColorsEnabled = false;
+
+  private float fullUploadThreshold = .5f;
+
+  private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
 
-  private LXModel model = null;
-  private int modelGeneration = -1;
+  /**
+   * Default number of points above which colors are converted in parallel
+   */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 18;
+
+  private boolean levelOfDetailEnabled = false;
+  private float levelOfDetailThreshold = 2;
+
+  private final Frustum frustum = new Frustum();
+  private IntBuffer elementData = null;
+  private int elementBufferObjectName = 0;
+  private int elementCount = 0;
+
+  // Matrices and settings that the current element selection was made with
+  private static final int SELECTION_STATE_SIZE = 36;
+  private final float[] selectionState = new float[SELECTION_STATE_SIZE];
+  private final float[] selectedState = new float[SELECTION_STATE_SIZE];
+  private boolean selectionInvalid = true;
+  private final float[] matrixScratch = new float[16];
+
+  // Whether the last selection was made at full detail while the octree was
+  // still being built
+  private boolean awaitingOctree = false;
+
+  private static final float[] NO_ATTENUATION = { 1, 0, 0 };
 
   /**
    * Point cloud for everything in the LX instance
@@ -73,56 +343,6 @@ public class UIGLPointCloud extends UIPointCloud {
     loadShader();
   }
 
-  private void buildModelBuffers(PGraphics pg) {
-    // Create a buffer for vertex data
-    this.vertexData = ByteBuffer
-      .allocateDirect(this.model.size * 3 * Float.SIZE/8)
-      .order(ByteOrder.nativeOrder())
-      .asFloatBuffer();
-
-    // Put all the points into the buffer
-    this.vertexData.rewind();
-    for (LXPoint p : this.model.points) {
-      // Each point has 3 floats, XYZ
-      this.vertexData.put(p.x);
-      this.vertexData.put(p.y);
-      this.vertexData.put(p.z);
-    }
-    this.vertexData.position(0);
-
-    // Create a buffer for color data
-    this.colorData = ByteBuffer
-      .allocateDirect(this.model.size * 4 * Float.SIZE/8)
-      .order(ByteOrder.nativeOrder())
-      .asFloatBuffer();
-
-    // Put all the points into the buffer
-    this.colorData.rewind();
-    for (int i = 0; i < this.model.points.length; ++i) {
-      // Each point has 4 floats, RGBA
-      this.colorData.put(0f);
-      this.colorData.put(0f);
-      this.colorData.put(0f);
-      this.colorData.put(1f);
-    }
-    this.colorData.position(0);
-
-    // Generate a buffer binding
-    IntBuffer resultBuffer = ByteBuffer
-      .allocateDirect(2 * Integer.SIZE/8)
-      .order(ByteOrder.nativeOrder())
-      .asIntBuffer();
-
-    PGL pgl = pg.beginPGL();
-    pgl.genBuffers(2, resultBuffer); // Generates a buffer, places its id in resultBuffer[0]
-    this.vertexBufferObjectName = resultBuffer.get(0); // Grab our buffer name
-    this.colorBufferObjectName = resultBuffer.get(1);
-    pgl.bindBuffer(PGL.ARRAY_BUFFER, this.vertexBufferObjectName);
-    pgl.bufferData(PGL.ARRAY_BUFFER, this.model.size * 3 * Float.SIZE/8, this.vertexData, PGL.STATIC_DRAW);
-    pgl.bindBuffer(PGL.ARRAY_BUFFER, 0);
-    pg.endPGL();
-  }
-
   /**
    * Enable alpha testing for dense point clouds to minimize some forms of
    * visible billboard aliasing across overlapping points;
@@ -135,6 +355,92 @@ public class UIGLPointCloud extends UIPointCloud {
     return this;
   }
 
+  /**
+   * Upload colors as packed normalized bytes rather than floats. This sends the
+   * engine's ARGB ints to the GPU as-is, which is a quarter of the bandwidth and
+   * skips the per-point float conversion entirely.
+   *
+   * @param packedColorsEnabled Whether packed colors are enabled
+   * @return this
+   */
+  public UIGLPointCloud setPackedColorsEnabled(boolean packedColorsEnabled) {
+    this.packedColorsEnabled = packedColorsEnabled;
+    return this;
+  }
+
+  /**
+   * Sets the number of color buffers that are cycled through. With more than
+   * one, each frame's colors are written into a buffer the GPU is not drawing
+   * from, so the upload does not need to wait for the previous frame's draw to
+   * complete, at the cost of more memory and changes being diffed against an
+   * older frame. With only one, each changed frame re-sends all of the colors
+   * so that the driver can orphan the buffer. The default is 2.
+   *
+   * @param numColorBuffers Number of color buffers, at least 1
+   * @return this
+   */
+  public UIGLPointCloud setColorBufferCount(int numColorBuffers) {
+    if (numColorBuffers < 1) {
+      throw new IllegalArgumentException("UIGLPointCloud must have at least one color buffer: " + numColorBuffers);
+    }
+    this.numColorBuffers = numColorBuffers;
+    return this;
+  }
+
+  /**
+   * Sets the fraction of changed points above which the whole color buffer is
+   * re-sent, rather than only the ranges that changed. 0 always uploads
+   * everything, 1 always uploads ranges.
+   *
+   * @param fullUploadThreshold Changed fraction from 0-1
+   * @return this
+   */
+  public UIGLPointCloud setFullUploadThreshold(float fullUploadThreshold) {
+    this.fullUploadThreshold = fullUploadThreshold;
+    return this;
+  }
+
+  /**
+   * Sets the number of points at or above which color conversion is split
+   * across the common fork-join pool. Below this the overhead of handing off
+   * work outweighs the benefit and the conversion stays on the UI thread.
+   *
+   * @param parallelThreshold Minimum number of points to convert in parallel
+   * @return this
+   */
+  public UIGLPointCloud setParallelThreshold(int parallelThreshold) {
+    this.parallelThreshold = parallelThreshold;
+    return this;
+  }
+
+  /**
+   * Enables octree-based level of detail. Regions of the model that are small
+   * on screen are drawn as a single representative point rather than every
+   * point inside them. Point indices are preserved, so colors still map
+   * directly onto the engine frame.
+   *
+   * @param levelOfDetailEnabled Whether level of detail is enabled
+   * @return this
+   */
+  public UIGLPointCloud setLevelOfDetailEnabled(boolean levelOfDetailEnabled) {
+    this.levelOfDetailEnabled = levelOfDetailEnabled;
+    this.selectionInvalid = true;
+    return this;
+  }
+
+  /**
+   * Sets the projected size, in pixels, below which an octree cell is drawn
+   * as a single point when level of detail is enabled
+   *
+   * @param levelOfDetailThreshold Cell size in pixels
+   * @return this
+   */
+  public UIGLPointCloud setLevelOfDetailThreshold(float levelOfDetailThreshold) {
+    this.levelOfDetailThreshold = levelOfDetailThreshold;
+    this.selectionInvalid = true;
+    return this;
+  }
+
   @Override
   protected void onUIResize(UI ui) {
     loadShader();
@@ -145,52 +451,144 @@ public class UIGLPointCloud extends UIPointCloud {
     this.vertexLocation = this.colorLocation = -1;
   }
 
+  /**
+   * Updates the list of point indices to draw, if the view has changed since
+   * the last selection was made.
+   *
+   * @return Whether the selection changed
+   */
+  private boolean selectPoints(PGraphicsOpenGL pg) {
+    float[] state = this.selectionState;
+    pg.modelview.get(this.matrixScratch);
+    System.arraycopy(this.matrixScratch, 0, state, 0, 16);
+    pg.projection.get(this.matrixScratch);
+    System.arraycopy(this.matrixScratch, 0, state, 16, 16);
+    state[32] = pg.height;
+    state[33] = this.levelOfDetailThreshold;
+    state[34] = this.levelOfDetailEnabled ? 1 : 0;
+    state[35] = this.frustumCullingEnabled ? 1 : 0;
+    if (!this.selectionInvalid && Arrays.equals(state, this.selectedState)) {
+      return false;
+    }
+    this.selectionInvalid = false;
+    System.arraycopy(state, 0, this.selectedState, 0, SELECTION_STATE_SIZE);
+
+    Frustum frustum = null;
+    if (this.frustumCullingEnabled) {
+      this.frustum.set(pg);
+      frustum = this.frustum;
+    }
+    PointOctree octree = this.levelOfDetailEnabled ? this.buffers.getOctree() : null;
+    this.awaitingOctree = this.levelOfDetailEnabled && (octree == null);
+    if (octree != null) {
+      this.elementCount = octree.select(pg.modelview, pg.projection, pg.height, this.levelOfDetailThreshold, frustum, this.elementData);
+    } else {
+      this.elementCount = this.buffers.getBVH().select(frustum, this.elementData);
+      if (this.levelOfDetailEnabled) {
+        // Full detail until the octree is ready, check again next frame
+        this.selectionInvalid = true;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  protected boolean needsRender() {
+    // The octree is built in the background, render again once it is ready
+    // so that a context rendering on demand picks up the level of detail
+    return
+      super.needsRender() ||
+      (this.awaitingOctree && (this.buffers != null) && this.buffers.isOctreeReady());
+  }
+
+  /**
+   * Releases the GPU buffers held by this point cloud, when it will not be
+   * drawn for a while. Call this from the UI thread, it is not invoked when
+   * the point cloud is removed from its context. The buffers are acquired
+   * again if it is drawn.
+   */
+  @Override
+  public void dispose() {
+    super.dispose();
+    if (this.buffers != null) {
+      this.buffers.release(this.buffersGraphics);
+      this.buffers = null;
+    }
+    if (this.elementBufferObjectName != 0) {
+      IntBuffer names = ByteBuffer
+        .allocateDirect(Integer.SIZE/8)
+        .order(ByteOrder.nativeOrder())
+        .asIntBuffer();
+      names.put(0, this.elementBufferObjectName);
+      PGL pgl = this.buffersGraphics.beginPGL();
+      pgl.deleteBuffers(1, names);
+      this.buffersGraphics.endPGL();
+      this.elementBufferObjectName = 0;
+    }
+    this.buffersGraphics = null;
+  }
+
   @Override
   protected void onDraw(UI ui, PGraphics pg) {
-    LXEngine.Frame frame = this.lx.getUIFrame();
+    LXEngine.Frame frame = this.frameSource.getUIFrame();
     int[] colors = frame.getColors();
     LXModel frameModel = frame.getModel();
-    int frameModelGeneration = frameModel.getGeneration();
 
     if (frameModel.size == 0) {
       // Nothing to see here! Don't render empty buffers...
       return;
     }
-
-    boolean updateVertexPositions = false;
-
-    // New model has been set!
-    if (this.model != frameModel) {
-      LXModel oldModel = this.model;
-      this.model = frameModel;
-      this.modelGeneration = frameModelGeneration;
-      if ((oldModel == null) || (oldModel.size != frameModel.size)) {
-        buildModelBuffers(pg);
+    checkNewFrame();
+
+    // Pick up the shared buffers for a new model or color settings
+    PointCloudBuffers buffers = this.buffers;
+    if ((buffers == null) ||
+        (buffers.source != this.frameSource) ||
+        (buffers.model != frameModel) ||
+        (buffers.packed != this.packedColorsEnabled) ||
+        (buffers.numColorBuffers != this.numColorBuffers)) {
+      if (buffers != null) {
+        buffers.release(this.buffersGraphics);
       }
-      updateVertexPositions = true;
-    } else if (this.modelGeneration != frameModelGeneration) {
-      updateVertexPositions = true;
-      this.modelGeneration = frameModelGeneration;
-    }
-
-    // Put our new colors in the VBO
-    int i = 0;
-    for (LXPoint p : this.model.points) {
-      int c = colors[p.index];
-      this.colorData.put(4*i + 0, (0xff & (c >> 16)) / 255f); // R
-      this.colorData.put(4*i + 1, (0xff & (c >> 8)) / 255f);  // G
-      this.colorData.put(4*i + 2, (0xff & (c)) / 255f);       // B
-      if (updateVertexPositions) {
-        this.vertexData.put(3*i + 0, p.x);
-        this.vertexData.put(3*i + 1, p.y);
-        this.vertexData.put(3*i + 2, p.z);
+      buffers = this.buffers = PointCloudBuffers.acquire(pg, this.frameSource, frameModel, this.packedColorsEnabled, this.numColorBuffers);
+      this.buffersGraphics = pg;
+      this.geometryVersion = -1;
+      if ((this.elementData == null) || (this.elementData.capacity() != frameModel.size)) {
+        // Buffer for indices of points selected for drawing, in the worst case
+        // every point is drawn
+        this.elementData = ByteBuffer
+          .allocateDirect(frameModel.size * Integer.SIZE/8)
+          .order(ByteOrder.nativeOrder())
+          .asIntBuffer();
       }
-      ++i;
     }
 
     // Get PGL context
     PGL pgl = pg.beginPGL();
 
+    // Bring the shared buffers up to date, if no other view has yet
+    buffers.update(pgl, colors, this.frameSource.getUIFrameSequence(), this.fullUploadThreshold, this.parallelThreshold, this.profiler);
+    if (this.geometryVersion != buffers.getGeometryVersion()) {
+      this.geometryVersion = buffers.getGeometryVersion();
+      this.selectionInvalid = true;
+    }
+
+    // Select which points to draw at the current level of detail
+    boolean drawElements = this.levelOfDetailEnabled || this.frustumCullingEnabled;
+    boolean updateElements = false;
+    if (drawElements) {
+      updateElements = selectPoints((PGraphicsOpenGL) pg);
+      if (this.elementBufferObjectName == 0) {
+        IntBuffer resultBuffer = ByteBuffer
+          .allocateDirect(Integer.SIZE/8)
+          .order(ByteOrder.nativeOrder())
+          .asIntBuffer();
+        pgl.genBuffers(1, resultBuffer);
+        this.elementBufferObjectName = resultBuffer.get(0);
+        updateElements = true;
+      }
+    }
+
     // Set up shader
     this.shader.bind();
     if (this.vertexLocation < 0) {
@@ -198,20 +596,21 @@ public class UIGLPointCloud extends UIPointCloud {
       this.colorLocation = pgl.getAttribLocation(this.shader.glProgram, "color");
     }
 
-    // Bind to our vertex buffer object, place the new color data
-    pgl.bindBuffer(PGL.ARRAY_BUFFER, this.colorBufferObjectName);
-    pgl.bufferData(PGL.ARRAY_BUFFER, this.model.size * 4 * Float.SIZE/8, this.colorData, PGL.STREAM_DRAW);
+    // Bind to the color and vertex buffer objects
+    pgl.bindBuffer(PGL.ARRAY_BUFFER, buffers.getColorBufferObjectName());
     pgl.enableVertexAttribArray(this.colorLocation);
-    pgl.vertexAttribPointer(this.colorLocation, 4, PGL.FLOAT, false, 4 * Float.SIZE/8, 0);
-
-    pgl.bindBuffer(PGL.ARRAY_BUFFER, this.vertexBufferObjectName);
-    if (updateVertexPositions) {
-      pgl.bufferData(PGL.ARRAY_BUFFER, this.model.size * 3 * Float.SIZE/8, this.vertexData, PGL.STREAM_DRAW);
+    if (buffers.packed) {
+      pgl.vertexAttribPointer(this.colorLocation, 4, PGL.UNSIGNED_BYTE, true, Integer.SIZE/8, 0);
+    } else {
+      pgl.vertexAttribPointer(this.colorLocation, 4, PGL.FLOAT, false, 4 * Float.SIZE/8, 0);
     }
+
+    pgl.bindBuffer(PGL.ARRAY_BUFFER, buffers.vertexBufferObjectName);
     pgl.enableVertexAttribArray(this.vertexLocation);
     pgl.vertexAttribPointer(this.vertexLocation, 3, PGL.FLOAT, false, 3 * Float.SIZE/8, 0);
 
     this.shader.set("pointSize", this.pointSize.getValuef());
+    this.shader.set("packedColors", buffers.packed);
     if (this.pointSizeAttenuation != null) {
       this.shader.set("attenuation", this.pointSizeAttenuation, 3);
     } else {
@@ -231,7 +630,18 @@ public class UIGLPointCloud extends UIPointCloud {
     }
 
     // Draw the arrays
-    pgl.drawArrays(PGL.POINTS, 0, this.model.size);
+    if (drawElements) {
+      pgl.bindBuffer(PGL.ELEMENT_ARRAY_BUFFER, this.elementBufferObjectName);
+      if (updateElements) {
+        pgl.bufferData(PGL.ELEMENT_ARRAY_BUFFER, this.elementCount * Integer.SIZE/8, this.elementData, PGL.STREAM_DRAW);
+      }
+      pgl.drawElements(PGL.POINTS, this.elementCount, PGL.UNSIGNED_INT, 0);
+      pgl.bindBuffer(PGL.ELEMENT_ARRAY_BUFFER, 0);
+      this.profiler.pointsDrawn = this.elementCount;
+    } else {
+      pgl.drawArrays(PGL.POINTS, 0, frameModel.size);
+      this.profiler.pointsDrawn = frameModel.size;
+    }
 
     gl2.glDisable(GL2.GL_VERTEX_PROGRAM_POINT_SIZE);
     gl2.glDisable(GL2.GL_POINT_SPRITE);
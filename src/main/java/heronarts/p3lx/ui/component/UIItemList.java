@@ -25,7 +25,9 @@
 package heronarts.p3lx.ui.component;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -244,6 +246,78 @@ public interface UIItemList {
     private int controlSurfaceFocusIndex = -1;
     private int controlSurfaceFocusLength = -1;
 
+    /**
+     * Index of which items are shown on which rows, accounting for collapsed
+     * sections. Immutable once built, since mouse events may resolve rows on
+     * the engine thread while the UI thread draws.
+     */
+    private static class RowIndex {
+
+      private static final RowIndex EMPTY = new RowIndex(new ArrayList<Item>());
+
+      /**
+       * Snapshot of the items the index was built from
+       */
+      private final Item[] items;
+
+      /**
+       * Item index shown on each row, only the first numRows are valid
+       */
+      private final int[] rowItems;
+
+      /**
+       * For each item, the number of rows shown up to and including it, minus
+       * one. This is the item's own row if it is shown.
+       */
+      private final int[] itemRows;
+
+      private final int numRows;
+
+      /**
+       * Expanded state of each section when the index was built
+       */
+      private final Map<Section, Boolean> expanded = new HashMap<Section, Boolean>();
+
+      private RowIndex(List<Item> items) {
+        this.items = items.toArray(new Item[0]);
+        this.rowItems = new int[this.items.length];
+        this.itemRows = new int[this.items.length];
+        int row = 0;
+        for (int i = 0; i < this.items.length; ++i) {
+          Section section = this.items[i].getSection();
+          if (section != null) {
+            this.expanded.put(section, section.expanded);
+          }
+          if (section == null || section.expanded) {
+            this.rowItems[row++] = i;
+          }
+          this.itemRows[i] = row - 1;
+        }
+        this.numRows = row;
+      }
+
+      private boolean isStale(List<Item> items) {
+        if (this.items.length != items.size()) {
+          return true;
+        }
+        // Items may be replaced in place through the mutable getItems() list
+        for (int i = 0; i < this.items.length; ++i) {
+          if (this.items[i] != items.get(i)) {
+            return true;
+          }
+        }
+        for (Map.Entry<Section, Boolean> entry : this.expanded.entrySet()) {
+          if (entry.getKey().expanded != entry.getValue()) {
+            return true;
+          }
+        }
+        return false;
+      }
+    }
+
+    private volatile RowIndex rowIndex = RowIndex.EMPTY;
+    private volatile boolean rowIndexDirty = false;
+
     private Impl(UI ui, UI2dContainer list) {
       this.list = list;
       list.setBackgroundColor(ui.theme.getDarkBackgroundColor());
@@ -284,13 +358,15 @@ public interface UIItemList {
     private void setFocusIndex(int focusIndex, boolean scroll) {
       focusIndex = LXUtils.constrain(focusIndex, -1, this.items.size() - 1);
       if (this.focusIndex != focusIndex) {
-        if (focusIndex >= 0 && scroll && this.list instanceof ScrollList) {
+        RowIndex rowIndex = getRowIndex();
+        if (focusIndex >= 0 && focusIndex < rowIndex.items.length && scroll && this.list instanceof ScrollList) {
           UI2dScrollContext scrollList = (UI2dScrollContext) this.list;
-          float yp = ROW_SPACING * focusIndex + scrollList.getScrollY();
+          int focusRow = Math.max(0, rowIndex.itemRows[focusIndex]);
+          float yp = ROW_SPACING * focusRow + scrollList.getScrollY();
           if (yp < 0) {
-            scrollList.setScrollY(-ROW_SPACING * focusIndex);
+            scrollList.setScrollY(-ROW_SPACING * focusRow);
           } else if (yp >= list.getHeight() - ROW_SPACING) {
-            scrollList.setScrollY(list.getHeight() - ROW_SPACING * (focusIndex+1) - ROW_MARGIN);
+            scrollList.setScrollY(list.getHeight() - ROW_SPACING * (focusRow+1) - ROW_MARGIN);
           }
         }
         this.focusIndex = focusIndex;
@@ -321,15 +397,24 @@ public interface UIItemList {
       return null;
     }
 
-    private void recomputeContentHeight() {
-      int itemCount = 0;
-      for (Item item : this.items) {
-        Section section = item.getSection();
-        if (section == null || section.expanded) {
-          ++itemCount;
-        }
+    /**
+     * Returns the row index, rebuilding it if the items or the expanded state
+     * of any section have changed since it was last built.
+     *
+     * @return Row index
+     */
+    private RowIndex getRowIndex() {
+      RowIndex rowIndex = this.rowIndex;
+      if (this.rowIndexDirty || rowIndex.isStale(this.items)) {
+        this.rowIndexDirty = false;
+        this.rowIndex = rowIndex = new RowIndex(this.items);
       }
-      setContentHeight(ROW_SPACING * itemCount + ROW_MARGIN);
+      return rowIndex;
+    }
+
+    private void recomputeContentHeight() {
+      this.rowIndexDirty = true;
+      setContentHeight(ROW_SPACING * getRowIndex().numRows + ROW_MARGIN);
     }
 
     private void addSection(Section section) {
@@ -407,6 +492,7 @@ public interface UIItemList {
       }
       this.items.remove(item);
       this.items.add(index, item);
+      this.rowIndexDirty = true;
       this.list.redraw();
     }
 
@@ -428,12 +514,13 @@ public interface UIItemList {
           listener.onItemFocused(item);
         }
       }
-      setContentHeight(ROW_SPACING * items.size() + ROW_MARGIN);
+      recomputeContentHeight();
       this.list.redraw();
     }
 
     private void clearItems() {
       this.items.clear();
+      this.rowIndexDirty = true;
       setContentHeight(ROW_MARGIN);
       this.list.redraw();
     }
@@ -536,18 +623,11 @@ public interface UIItemList {
     }
 
     private int getVisibleFocusIndex() {
-      int counter = 0;
-      int itemIndex = -1;
-      for (Item item : this.items) {
-        Section section = item.getSection();
-        if (section == null || section.expanded) {
-          ++itemIndex;
-        }
-        if (counter++ >= this.focusIndex) {
-          break;
-        }
+      RowIndex rowIndex = getRowIndex();
+      if (rowIndex.items.length == 0) {
+        return -1;
       }
-      return itemIndex;
+      return rowIndex.itemRows[LXUtils.constrain(this.focusIndex, 0, rowIndex.items.length - 1)];
     }
 
     private void drawFocus(UI ui, PGraphics pg) {
@@ -559,11 +639,9 @@ public interface UIItemList {
     }
 
     private void onDraw(UI ui, PGraphics pg) {
-      float yp = ROW_MARGIN;
       pg.textFont(ui.theme.getControlFont());
       pg.textAlign(PConstants.LEFT, PConstants.TOP);
       pg.noStroke();
-      int i = 0;
 
       float rowWidth = getRowWidth();
 
@@ -577,15 +655,16 @@ public interface UIItemList {
         pg.rect(getWidth() - PADDING-SCROLL_BAR_WIDTH, barY, SCROLL_BAR_WIDTH, barHeight, 4);
       }
 
-      for (Item item : this.items) {
+      // Only draw the rows that fall within the scroll window
+      RowIndex rowIndex = getRowIndex();
+      int firstRow = Math.max(0, (int) ((-getScrollY() - ROW_MARGIN) / ROW_SPACING));
+      int lastRow = Math.min(rowIndex.numRows - 1, (int) ((getHeight() - getScrollY() - ROW_MARGIN) / ROW_SPACING));
+      for (int row = firstRow; row <= lastRow; ++row) {
+        int i = rowIndex.rowItems[row];
+        Item item = rowIndex.items[i];
         Section section = item.getSection();
         boolean isSection = item instanceof Section;
-
-        // Skip rendering items that are in a collapsed section
-        if (section != null && !section.expanded) {
-          ++i;
-          continue;
-        }
+        float yp = ROW_MARGIN + ROW_SPACING * row;
 
         boolean renameItem = this.renaming && (this.focusIndex == i);
 
@@ -642,9 +721,6 @@ public interface UIItemList {
           pg.fill(textColor);
           pg.text(UI2dComponent.clipTextToWidth(pg, item.getLabel(), rowWidth - textX - 2), textX, yp + 2);
         }
-        yp += ROW_SPACING;
-
-        ++i;
       }
 
       if (this.controlSurfaceFocusIndex >= 0 && this.controlSurfaceFocusLength > 0) {
@@ -667,18 +743,12 @@ public interface UIItemList {
       }
 
       int visibleIndex = (int) (my / (ROW_HEIGHT + ROW_MARGIN));
-      int counter = 0;
-      int itemIndex = -1;
-      for (Item item : this.items) {
-        ++itemIndex;
-        Section section = item.getSection();
-        if (section == null || section.expanded) {
-          if (counter++ >= visibleIndex) {
-            break;
-          }
-        }
+      RowIndex rowIndex = getRowIndex();
+      if (visibleIndex < rowIndex.numRows) {
+        return rowIndex.rowItems[visibleIndex];
       }
-      return itemIndex;
+      // Below the last row resolves to the last item
+      return rowIndex.items.length - 1;
     }
 
     private void onMouseClicked(MouseEvent mouseEvent, float mx, float my) {
@@ -775,6 +845,7 @@ public interface UIItemList {
               Item item = this.items.remove(this.focusIndex);
               this.focusIndex = this.focusIndex - 1;
               this.items.add(this.focusIndex, item);
+              this.rowIndexDirty = true;
               item.onReorder(this.focusIndex);
               this.list.redraw();
             }
@@ -791,6 +862,7 @@ public interface UIItemList {
               Item item = this.items.remove(this.focusIndex);
               this.focusIndex = this.focusIndex + 1;
               this.items.add(this.focusIndex, item);
+              this.rowIndexDirty = true;
               item.onReorder(this.focusIndex);
               this.list.redraw();
             }
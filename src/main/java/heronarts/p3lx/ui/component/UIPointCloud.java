@@ -24,18 +24,23 @@
 
 package heronarts.p3lx.ui.component;
 
+import java.nio.IntBuffer;
+
 import com.google.gson.JsonObject;
 
 import heronarts.lx.LX;
 import heronarts.lx.LXEngine;
 import heronarts.lx.LXSerializable;
+import heronarts.lx.model.LXModel;
 import heronarts.lx.model.LXPoint;
 import heronarts.lx.parameter.BoundedParameter;
+import heronarts.p3lx.FrameSource;
 import heronarts.p3lx.P3LX;
 import heronarts.p3lx.ui.UI;
 import heronarts.p3lx.ui.UI3dComponent;
 import processing.core.PConstants;
 import processing.core.PGraphics;
+import processing.opengl.PGraphicsOpenGL;
 
 /**
  * Draws a cloud of points in the layer
@@ -44,11 +49,30 @@ public class UIPointCloud extends UI3dComponent implements LXSerializable {
 
   protected final P3LX lx;
 
+  /**
+   * Source of the frames that are drawn, the live UI frame by default
+   */
+  protected FrameSource frameSource;
+
   public final BoundedParameter pointSize = new BoundedParameter("Point Size", 2, 1, 10)
   .setDescription("Size of points in the UI");
 
   protected float[] pointSizeAttenuation = null;
 
+  protected boolean frustumCullingEnabled = false;
+
+  // Spatial index used for culling, rebuilt when the model geometry changes
+  private PointBVH bvh = null;
+  private LXModel bvhModel = null;
+  private int bvhModelGeneration = -1;
+  private IntBuffer visibleIndices = null;
+  private final Frustum frustum = new Frustum();
+
+  // State as of the last time the cloud was drawn
+  private int renderedFrameSequence = -1;
+  private float renderedPointSize = -1;
+  private boolean attenuationChanged = true;
+
   /**
    * Point cloud for everything in the LX instance
    *
@@ -56,6 +80,20 @@ public class UIPointCloud extends UI3dComponent implements LXSerializable {
    */
   public UIPointCloud(P3LX lx) {
     this.lx = lx;
+    this.frameSource = lx;
+  }
+
+  /**
+   * Sets where the frames that are drawn come from, e.g. a FramePlayer to
+   * review a recording rather than the live engine output
+   *
+   * @param frameSource Frame source, or null for the live UI frame
+   * @return this
+   */
+  public UIPointCloud setFrameSource(FrameSource frameSource) {
+    this.frameSource = (frameSource != null) ? frameSource : this.lx;
+    this.renderedFrameSequence = -1;
+    return this;
   }
 
   /**
@@ -76,6 +114,7 @@ public class UIPointCloud extends UI3dComponent implements LXSerializable {
    */
   public UIPointCloud disablePointSizeAttenuation() {
     this.pointSizeAttenuation = null;
+    this.attenuationChanged = true;
     return this;
   }
 
@@ -94,24 +133,86 @@ public class UIPointCloud extends UI3dComponent implements LXSerializable {
     this.pointSizeAttenuation[0] = a;
     this.pointSizeAttenuation[1] = b;
     this.pointSizeAttenuation[2] = c;
+    this.attenuationChanged = true;
+    return this;
+  }
+
+  /**
+   * Sets whether points outside of the camera's view are culled before
+   * drawing. Points are culled in groups, following the structure of the
+   * model's fixtures, so this is most effective when the view is close in on
+   * part of a large model.
+   *
+   * @param frustumCullingEnabled Whether frustum culling is enabled
+   * @return this
+   */
+  public UIPointCloud setFrustumCullingEnabled(boolean frustumCullingEnabled) {
+    this.frustumCullingEnabled = frustumCullingEnabled;
     return this;
   }
 
+  @Override
+  protected boolean needsRender() {
+    return
+      this.attenuationChanged ||
+      (this.renderedPointSize != this.pointSize.getValuef()) ||
+      (this.renderedFrameSequence != this.frameSource.getUIFrameSequence());
+  }
+
+  /**
+   * Records that the current UI frame is being drawn. Subclasses should call
+   * this once from onDraw.
+   *
+   * @return true if the UI frame is different from the one that was last drawn
+   */
+  protected boolean checkNewFrame() {
+    int frameSequence = this.frameSource.getUIFrameSequence();
+    boolean newFrame = (frameSequence != this.renderedFrameSequence);
+    this.renderedFrameSequence = frameSequence;
+    this.renderedPointSize = this.pointSize.getValuef();
+    this.attenuationChanged = false;
+    return newFrame;
+  }
+
   @Override
   protected void onDraw(UI ui, PGraphics pg) {
-    LXEngine.Frame frame = this.lx.getUIFrame();
+    checkNewFrame();
+    LXEngine.Frame frame = this.frameSource.getUIFrame();
     int[] colors = frame.getColors();
+    LXModel model = frame.getModel();
     pg.noFill();
     pg.strokeWeight(this.pointSize.getValuef());
     pg.beginShape(PConstants.POINTS);
-    for (LXPoint p : frame.getModel().points) {
-      pg.stroke(colors[p.index]);
-      pg.vertex(p.x, p.y, p.z);
+    if (this.frustumCullingEnabled && (pg instanceof PGraphicsOpenGL)) {
+      IntBuffer visible = selectVisible(model, (PGraphicsOpenGL) pg);
+      LXPoint[] byIndex = this.bvh.byIndex;
+      while (visible.hasRemaining()) {
+        LXPoint p = byIndex[visible.get()];
+        pg.stroke(colors[p.index]);
+        pg.vertex(p.x, p.y, p.z);
+      }
+    } else {
+      for (LXPoint p : model.points) {
+        pg.stroke(colors[p.index]);
+        pg.vertex(p.x, p.y, p.z);
+      }
     }
     pg.endShape();
     pg.strokeWeight(1);
   }
 
+  private IntBuffer selectVisible(LXModel model, PGraphicsOpenGL pg) {
+    if ((this.bvh == null) || (this.bvhModel != model) || (this.bvhModelGeneration != model.getGeneration())) {
+      this.bvh = new PointBVH(model);
+      this.bvhModel = model;
+      this.bvhModelGeneration = model.getGeneration();
+      this.visibleIndices = IntBuffer.allocate(model.size);
+    }
+    this.frustum.set(pg);
+    this.bvh.select(this.frustum, this.visibleIndices);
+    return this.visibleIndices;
+  }
+
   private static final String KEY_POINT_SIZE = "pointSize";
 
   @Override
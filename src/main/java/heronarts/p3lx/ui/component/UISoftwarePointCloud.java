@@ -0,0 +1,435 @@
+/**
+ * Copyright 2013- Mark C. Slee, Heron Arts LLC
+ *
+ * This file is part of the LX Studio software library. By using
+ * LX, you agree to the terms of the LX Studio Software License
+ * and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * Please note that the LX license is not open-source. The license
+ * allows for free, non-commercial use.
+ *
+ * HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR
+ * OTHERWISE, AND SPECIFICALLY DISCLAIMS ANY WARRANTY OF
+ * MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR
+ * PURPOSE, WITH RESPECT TO THE SOFTWARE.
+ *
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+
+package heronarts.p3lx.ui.component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import heronarts.lx.LXEngine;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+import heronarts.p3lx.P3LX;
+import heronarts.p3lx.ui.UI;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PImage;
+import processing.core.PMatrix2D;
+import processing.core.PMatrix3D;
+import processing.opengl.PGraphicsOpenGL;
+import processing.opengl.PShader;
+
+/**
+ * Point cloud that is rasterized on the CPU rather than by the GPU, for
+ * machines with no hardware graphics acceleration. Points are projected with
+ * the camera of the containing UI3dContext and drawn as squares with a depth
+ * buffer, split into horizontal bands that are rendered in parallel. The result
+ * is drawn over the scene as a plain image. On renderers without a 3d camera,
+ * the x and y coordinates of the points are drawn through the current 2d
+ * transform. Point size attenuation is not supported.
+ */
+public class UISoftwarePointCloud extends UIPointCloud {
+
+  /**
+   * Number of points projected by each parallel task
+   */
+  private static final int CHUNK_SIZE = 1 << 14;
+
+  /**
+   * Height in pixels of the bands that are rasterized in parallel
+   */
+  private static final int BAND_HEIGHT = 32;
+
+  private PImage image = null;
+  private float[] depth = null;
+
+  private boolean depthTest = false;
+  private boolean renderedDepthTest = false;
+
+  // Window depth of each pixel, packed for the shader that draws the image
+  // when depth testing
+  private PImage depthImage = null;
+  private PShader shader = null;
+
+  // Projected screen position and depth of each point, by array position
+  private int[] screenX = new int[0];
+  private int[] screenY = new int[0];
+  private float[] screenZ = new float[0];
+
+  // Points binned by band, per chunk: binOffsets[chunk * numBands + band]
+  private int[] binCounts = new int[0];
+  private int[] binOffsets = new int[0];
+  private int[] bins = new int[0];
+
+  private int numChunks = 0;
+  private int numBands = 0;
+  private int splatSize = 1;
+
+  // View and frame state that the image was last rendered with
+  private static final int RENDER_STATE_SIZE = 20;
+  private final float[] renderState = new float[RENDER_STATE_SIZE];
+  private final float[] renderedState = new float[RENDER_STATE_SIZE];
+  private final float[] matrixScratch = new float[16];
+
+  private final PMatrix3D projmodelview = new PMatrix3D();
+  private final PMatrix2D matrix2d = new PMatrix2D();
+  private final PMatrix3D savedCamera = new PMatrix3D();
+  private final PMatrix3D savedCameraInv = new PMatrix3D();
+  private final PMatrix3D savedModelview = new PMatrix3D();
+  private final PMatrix3D savedModelviewInv = new PMatrix3D();
+
+  /**
+   * Software point cloud for everything in the LX instance
+   *
+   * @param lx LX instance
+   */
+  public UISoftwarePointCloud(P3LX lx) {
+    super(lx);
+  }
+
+  /**
+   * Sets whether the points are depth-tested against the rest of the scene.
+   * This draws the image through a shader that writes the depth of each pixel,
+   * so it is only used by OpenGL renderers. Otherwise, and by default, the
+   * points are drawn over the scene.
+   *
+   * @param depthTest Whether to depth test the points
+   * @return this
+   */
+  public UISoftwarePointCloud setDepthTest(boolean depthTest) {
+    this.depthTest = depthTest;
+    return this;
+  }
+
+  @Override
+  protected void onUIResize(UI ui) {
+    this.shader = null;
+  }
+
+  @Override
+  protected boolean needsRender() {
+    return super.needsRender() || (this.depthTest != this.renderedDepthTest);
+  }
+
+  @Override
+  protected void onDraw(UI ui, PGraphics pg) {
+    LXEngine.Frame frame = this.frameSource.getUIFrame();
+    boolean newFrame = checkNewFrame();
+    boolean shaderDepth = this.depthTest && (pg instanceof PGraphicsOpenGL);
+    this.renderedDepthTest = this.depthTest;
+
+    if (pg instanceof PGraphicsOpenGL) {
+      PGraphicsOpenGL pgl = (PGraphicsOpenGL) pg;
+      this.projmodelview.set(pgl.projection);
+      this.projmodelview.apply(pgl.modelview);
+    } else {
+      // No 3d camera, map x and y through the 2d transform to device
+      // coordinates, with z only used to decide which points are in front
+      LXModel model = frame.getModel();
+      PMatrix2D m = pg.getMatrix(this.matrix2d);
+      float sx = 2f / pg.width;
+      float sy = -2f / pg.height;
+      float sz = -1 / (model.zRange * .5f + 1);
+      this.projmodelview.set(
+        sx * m.m00, sx * m.m01, 0, sx * m.m02 - 1,
+        sy * m.m10, sy * m.m11, 0, sy * m.m12 + 1,
+        0, 0, sz, -sz * model.cz,
+        0, 0, 0, 1
+      );
+    }
+
+    // Only re-rasterize if the frame or the view has changed
+    float[] state = this.renderState;
+    this.projmodelview.get(this.matrixScratch);
+    System.arraycopy(this.matrixScratch, 0, state, 0, 16);
+    state[16] = pg.width;
+    state[17] = pg.height;
+    state[18] = this.pointSize.getValuef();
+    state[19] = shaderDepth ? 1 : 0;
+    if (newFrame || (this.image == null) || !Arrays.equals(state, this.renderedState)) {
+      System.arraycopy(state, 0, this.renderedState, 0, RENDER_STATE_SIZE);
+      render(pg, frame, shaderDepth);
+    }
+
+    if (shaderDepth) {
+      blitDepthTested((PGraphicsOpenGL) pg);
+    } else {
+      blit(pg);
+    }
+  }
+
+  private void render(PGraphics pg, LXEngine.Frame frame, boolean shaderDepth) {
+    final int width = pg.width;
+    final int height = pg.height;
+    if ((this.image == null) || (this.image.width != width) || (this.image.height != height)) {
+      this.image = new PImage(width, height, PConstants.ARGB);
+      this.image.loadPixels();
+      this.depth = new float[width * height];
+      this.depthImage = null;
+    }
+    if (!shaderDepth) {
+      this.depthImage = null;
+    } else if (this.depthImage == null) {
+      this.depthImage = new PImage(width, height, PConstants.ARGB);
+      this.depthImage.loadPixels();
+    }
+
+    final LXModel model = frame.getModel();
+    final int[] colors = frame.getColors();
+    final LXPoint[] points = model.points;
+    final int numPoints = points.length;
+    if (this.screenX.length < numPoints) {
+      this.screenX = new int[numPoints];
+      this.screenY = new int[numPoints];
+      this.screenZ = new float[numPoints];
+      this.bins = new int[2 * numPoints];
+    }
+    this.numChunks = (numPoints + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    this.numBands = (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+    if (this.binCounts.length < this.numChunks * this.numBands) {
+      this.binCounts = new int[this.numChunks * this.numBands];
+      this.binOffsets = new int[this.numChunks * this.numBands];
+    }
+    this.splatSize = Math.max(1, Math.round(this.pointSize.getValuef()));
+
+    // Project all the points and count how many touch each band
+    Arrays.fill(this.binCounts, 0, this.numChunks * this.numBands, 0);
+    List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+    for (int c = 0; c < this.numChunks; ++c) {
+      final int chunk = c;
+      tasks.add(new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected void compute() {
+          project(points, chunk, width, height);
+        }
+      });
+    }
+    ForkJoinTask.invokeAll(tasks);
+
+    // Work out where each chunk's points go in each band's list
+    int offset = 0;
+    for (int b = 0; b < this.numBands; ++b) {
+      for (int c = 0; c < this.numChunks; ++c) {
+        this.binOffsets[c * this.numBands + b] = offset;
+        offset += this.binCounts[c * this.numBands + b];
+      }
+    }
+    if (offset > this.bins.length) {
+      // Large points can cover more than two bands each
+      this.bins = new int[offset];
+    }
+    tasks.clear();
+    for (int c = 0; c < this.numChunks; ++c) {
+      final int chunk = c;
+      tasks.add(new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected void compute() {
+          bin(chunk, numPoints);
+        }
+      });
+    }
+    ForkJoinTask.invokeAll(tasks);
+
+    // Rasterize each band independently
+    tasks.clear();
+    for (int b = 0; b < this.numBands; ++b) {
+      final int band = b;
+      tasks.add(new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected void compute() {
+          rasterize(points, colors, band, width, height);
+        }
+      });
+    }
+    ForkJoinTask.invokeAll(tasks);
+
+    this.image.updatePixels();
+    if (this.depthImage != null) {
+      this.depthImage.updatePixels();
+    }
+  }
+
+  private void project(LXPoint[] points, int chunk, int width, int height) {
+    final PMatrix3D m = this.projmodelview;
+    final int half = this.splatSize / 2;
+    final int start = chunk * CHUNK_SIZE;
+    final int end = Math.min(points.length, start + CHUNK_SIZE);
+    final int countOffset = chunk * this.numBands;
+    for (int i = start; i < end; ++i) {
+      LXPoint p = points[i];
+      float w = m.m30 * p.x + m.m31 * p.y + m.m32 * p.z + m.m33;
+      if (w <= 0) {
+        // Behind the camera
+        this.screenY[i] = Integer.MIN_VALUE;
+        continue;
+      }
+      float x = (m.m00 * p.x + m.m01 * p.y + m.m02 * p.z + m.m03) / w;
+      float y = (m.m10 * p.x + m.m11 * p.y + m.m12 * p.z + m.m13) / w;
+      float z = (m.m20 * p.x + m.m21 * p.y + m.m22 * p.z + m.m23) / w;
+      int sx = (int) (width * (1 + x) * .5f);
+      int sy = (int) (height * (1 - y) * .5f);
+      int y0 = sy - half;
+      int y1 = y0 + this.splatSize - 1;
+      if ((z < -1) || (z > 1) || (sx + half < 0) || (sx - half >= width) || (y1 < 0) || (y0 >= height)) {
+        this.screenY[i] = Integer.MIN_VALUE;
+        continue;
+      }
+      this.screenX[i] = sx;
+      this.screenY[i] = sy;
+      this.screenZ[i] = z;
+      int b0 = Math.max(0, y0) / BAND_HEIGHT;
+      int b1 = Math.min(height - 1, y1) / BAND_HEIGHT;
+      for (int b = b0; b <= b1; ++b) {
+        ++this.binCounts[countOffset + b];
+      }
+    }
+  }
+
+  private void bin(int chunk, int numPoints) {
+    final int half = this.splatSize / 2;
+    final int start = chunk * CHUNK_SIZE;
+    final int end = Math.min(numPoints, start + CHUNK_SIZE);
+    final int offsetBase = chunk * this.numBands;
+    final int maxBand = this.numBands - 1;
+    for (int i = start; i < end; ++i) {
+      int sy = this.screenY[i];
+      if (sy == Integer.MIN_VALUE) {
+        continue;
+      }
+      int y0 = sy - half;
+      int b0 = Math.max(0, y0 / BAND_HEIGHT);
+      int b1 = Math.min(maxBand, (y0 + this.splatSize - 1) / BAND_HEIGHT);
+      for (int b = b0; b <= b1; ++b) {
+        this.bins[this.binOffsets[offsetBase + b]++] = i;
+      }
+    }
+  }
+
+  private void rasterize(LXPoint[] points, int[] colors, int band, int width, int height) {
+    final int[] pixels = this.image.pixels;
+    final float[] depth = this.depth;
+    final int[] depthPixels = (this.depthImage != null) ? this.depthImage.pixels : null;
+    final int bandStart = band * BAND_HEIGHT;
+    final int bandEnd = Math.min(height, bandStart + BAND_HEIGHT);
+    Arrays.fill(pixels, bandStart * width, bandEnd * width, 0);
+    Arrays.fill(depth, bandStart * width, bandEnd * width, Float.MAX_VALUE);
+
+    if (this.numChunks == 0) {
+      return;
+    }
+
+    // After binning, each chunk's offset points at the end of its list, which
+    // is where the next chunk's list begins
+    int from = (band == 0) ? 0 : this.binOffsets[(this.numChunks - 1) * this.numBands + band - 1];
+    int to = this.binOffsets[(this.numChunks - 1) * this.numBands + band];
+    final int half = this.splatSize / 2;
+    for (int n = from; n < to; ++n) {
+      int i = this.bins[n];
+      int color = colors[points[i].index] | 0xff000000;
+      float z = this.screenZ[i];
+      // Normalized device depth to the default window depth range
+      int windowDepth = 0xff000000 | (int) ((z * .5f + .5f) * 0xffffff);
+      int x0 = Math.max(0, this.screenX[i] - half);
+      int x1 = Math.min(width, this.screenX[i] - half + this.splatSize);
+      int y0 = Math.max(bandStart, this.screenY[i] - half);
+      int y1 = Math.min(bandEnd, this.screenY[i] - half + this.splatSize);
+      for (int y = y0; y < y1; ++y) {
+        int row = y * width;
+        for (int x = x0; x < x1; ++x) {
+          if (z < depth[row + x]) {
+            depth[row + x] = z;
+            pixels[row + x] = color;
+            if (depthPixels != null) {
+              depthPixels[row + x] = windowDepth;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Draws the rasterized image over the scene in screen space
+   */
+  private void blit(PGraphics pg) {
+    if (!(pg instanceof PGraphicsOpenGL)) {
+      pg.pushMatrix();
+      pg.resetMatrix();
+      pg.image(this.image, 0, 0);
+      pg.popMatrix();
+      return;
+    }
+    PGraphicsOpenGL pgl = (PGraphicsOpenGL) pg;
+    saveCamera(pgl);
+    pg.hint(PConstants.DISABLE_DEPTH_TEST);
+    pg.image(this.image, 0, 0);
+    pg.hint(PConstants.ENABLE_DEPTH_TEST);
+    restoreCamera(pgl);
+  }
+
+  /**
+   * Draws the rasterized image with a shader that writes each pixel's depth,
+   * so that the points are depth-tested against the rest of the scene
+   */
+  private void blitDepthTested(PGraphicsOpenGL pg) {
+    if (this.shader == null) {
+      this.shader = this.lx.applet.loadShader("softfrag.glsl", "softvert.glsl");
+    }
+    saveCamera(pg);
+    this.shader.set("depthMap", this.depthImage);
+    pg.shader(this.shader);
+    pg.image(this.image, 0, 0);
+    pg.flush();
+    pg.resetShader();
+    restoreCamera(pg);
+  }
+
+  /**
+   * Switches to the default screen space camera and projection, keeping the
+   * context's to be put back by restoreCamera()
+   */
+  private void saveCamera(PGraphicsOpenGL pg) {
+    this.savedCamera.set(pg.camera);
+    this.savedCameraInv.set(pg.cameraInv);
+    this.savedModelview.set(pg.modelview);
+    this.savedModelviewInv.set(pg.modelviewInv);
+    pg.pushProjection();
+    pg.camera();
+    pg.perspective();
+  }
+
+  private void restoreCamera(PGraphicsOpenGL pg) {
+    pg.camera.set(this.savedCamera);
+    pg.cameraInv.set(this.savedCameraInv);
+    pg.modelview.set(this.savedModelview);
+    pg.modelviewInv.set(this.savedModelviewInv);
+    pg.popProjection();
+  }
+}
@@ -0,0 +1,19 @@
+#define PROCESSING_TEXTURE_SHADER
+
+uniform sampler2D texture;
+
+// Window depth of each pixel, packed into 24 bits of RGB
+uniform sampler2D depthMap;
+
+varying vec4 vertColor;
+varying vec4 vertTexCoord;
+
+void main() {
+  vec4 color = texture2D(texture, vertTexCoord.st);
+  if (color.a < 0.5) {
+    discard;
+  }
+  vec3 depth = texture2D(depthMap, vertTexCoord.st).rgb;
+  gl_FragDepth = dot(depth, vec3(65536.0, 256.0, 1.0)) * 255.0 / 16777215.0;
+  gl_FragColor = color * vertColor;
+}
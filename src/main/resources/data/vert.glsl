@@ -11,6 +11,9 @@ out vec4 vertexColor;
 uniform vec3 attenuation;
 uniform float pointSize;
 
+// Packed colors arrive as little-endian ARGB ints, i.e. BGRA bytes
+uniform bool packedColors;
+
 void main() {
   vec4 cameraCoord = modelview * vertex; 
   gl_Position = projection * cameraCoord;
@@ -19,5 +22,5 @@ void main() {
   	attenuation.x + distance * (attenuation.y + distance * attenuation.z)
   );
   gl_PointSize = max(pointSize * att, 1.);
-  vertexColor = color;
+  vertexColor = packedColors ? color.bgra : color;
 }